@@ -0,0 +1,109 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Heap taken by the inventory, per product, in three layouts:
+//
+//   objects   one Product object per row in an ArrayList, with a HashMap
+//             from name to row; how the catalog held products before
+//             ProductStore
+//   columns   InventoryCatalog as loaded from a file or a server: names
+//             packed as UTF-8 and values in primitive arrays, with the
+//             store's name index
+//   views     the same after every row's Product view was created, the
+//             worst case after e.g. a full import
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out FootprintBenchmark [--sizes 100000,1000000]
+//
+// Sizes are measured as the heap in use after a full GC with the layout
+// held, minus the heap in use before it was built. Below about 100k
+// products the difference is lost in GC noise.
+public class FootprintBenchmark {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    // Keeps the measured layout reachable
+    static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {100000, 1000000};
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sizes")) {
+                String[] parts = args[++i].split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    sizes[j] = Integer.parseInt(parts[j].trim());
+                }
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        System.out.printf("%-10s %10s %14s %12s%n", "layout", "products", "bytes/product", "total MB");
+        for (int size : sizes) {
+            report("objects", size, objects(size));
+            report("columns", size, columns(size, false));
+            report("views", size, columns(size, true));
+        }
+    }
+
+    private static long objects(int size) {
+        long before = usedAfterGc();
+        List<Product> rows = new ArrayList<>();
+        Map<String, Integer> rowIndex = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Product product = new Product(name(i), price(i), 1000, sku(i));
+            rowIndex.put(product.getName(), rows.size());
+            rows.add(product);
+        }
+        sink = new Object[] {rows, rowIndex};
+        long used = usedAfterGc() - before;
+        sink = null;
+        return used;
+    }
+
+    private static long columns(int size, boolean views) {
+        long before = usedAfterGc();
+        InventoryCatalog catalog = new InventoryCatalog();
+        for (int i = 0; i < size; i++) {
+            catalog.add(name(i), price(i), 1000, sku(i), 0);
+        }
+        if (views) {
+            for (int row = 0; row < size; row++) {
+                catalog.get(row);
+            }
+        }
+        sink = catalog;
+        long used = usedAfterGc() - before;
+        sink = null;
+        return used;
+    }
+
+    // Like the names of a real catalog, about 20 characters
+    private static String name(int i) {
+        return "Product " + i + " 500ml bottle";
+    }
+
+    private static long price(int i) {
+        return 100 + i % 5000;
+    }
+
+    private static long sku(int i) {
+        return 4_000_000_000_000L + i;
+    }
+
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void report(String layout, int size, long bytes) {
+        System.out.printf("%-10s %10d %14.1f %12.1f%n", layout, size, (double) bytes / size, bytes / 1e6);
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Drives an in-process InventoryServer with many simulated tills, each on its
+// own connection and thread, sending pipelined checkouts of random baskets.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out InventoryLoadTest [--terminals 200] [--seconds 10]
+//           [--pipeline 4] [--products 10000] [--basket 3] [--stock 1000]
+//
+// Reports checkouts per second, latency percentiles per request (from
+// sending its pipeline to reading its response), how many requests shared
+// each journal fsync, and checks that no stock was lost or oversold.
+public class InventoryLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int terminals = 200;
+        int seconds = 10;
+        int pipeline = 4;
+        int products = 10000;
+        int basket = 3;
+        int stock = 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--terminals":
+                    terminals = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--pipeline":
+                    pipeline = Integer.parseInt(args[++i]);
+                    break;
+                case "--products":
+                    products = Integer.parseInt(args[++i]);
+                    break;
+                case "--basket":
+                    basket = Integer.parseInt(args[++i]);
+                    break;
+                case "--stock":
+                    stock = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("pos-load");
+        Path inventoryPath = dir.resolve("inventory.txt");
+        String[] names = new String[products];
+        long[] prices = new long[products];
+        int[] stocks = new int[products];
+        long[] skus = new long[products];
+        int[] reorderLevels = new int[products];
+        for (int i = 0; i < products; i++) {
+            names[i] = "Product " + i;
+            prices[i] = 100 + i % 5000;
+            stocks[i] = stock;
+        }
+        InventoryFile.write(inventoryPath, names, prices, stocks, skus, reorderLevels);
+
+        final InventoryServer server = new InventoryServer(inventoryPath, dir.resolve("inventory.journal"), 0);
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "inventory-server");
+        serverThread.start();
+
+        final LatencyHistogram latency = new LatencyHistogram("checkout.remote");
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong outOfStock = new AtomicLong();
+        final AtomicLong unitsSold = new AtomicLong();
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < terminals; t++) {
+            final Terminal terminal = new Terminal(server.port(), names, pipeline, basket, t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        terminal.run(deadline, latency, completed, outOfStock, unitsSold);
+                    } catch (IOException e) {
+                        System.err.println("Terminal failed: " + e);
+                    }
+                }
+            }, "terminal-" + t);
+            threads.add(thread);
+        }
+        long requestsBefore = server.getRequestCount();
+        long commitsBefore = server.getCommitCount();
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long requests = server.getRequestCount() - requestsBefore;
+        long commits = server.getCommitCount() - commitsBefore;
+
+        // Every unit sold must be gone from the server's stock, and no more
+        long left = 0;
+        try (InventoryClient client = new InventoryClient("localhost", server.port())) {
+            client.sendList();
+            client.flush();
+            for (Product product : InventoryClient.readCatalog(client.read().getPayload()).asList()) {
+                left += product.getStock();
+            }
+        }
+        long expected = (long) stock * products - unitsSold.get();
+
+        server.close();
+        serverThread.join();
+        deleteRecursively(dir);
+
+        System.out.printf("%d terminals, pipeline %d, %d products, %d lines per basket, %.1f s%n",
+                terminals, pipeline, products, basket, elapsed);
+        System.out.printf("checkouts:     %d (%.0f/s), %d out of stock%n",
+                completed.get(), completed.get() / elapsed, outOfStock.get());
+        System.out.printf("latency:       p50 %.0f us, p99 %.0f us, p99.9 %.0f us, max %.0f us%n",
+                latency.getP50Micros(), latency.getP99Micros(), latency.getP999Micros(), latency.getMaxMicros());
+        System.out.printf("fsyncs:        %d (%.1f requests each)%n",
+                commits, commits == 0 ? 0.0 : (double) requests / commits);
+        System.out.printf("stock check:   %d left, %d expected%s%n",
+                left, expected, left == expected ? "" : "  MISMATCH");
+        if (left != expected) {
+            System.exit(1);
+        }
+    }
+
+    // One till: sends a pipeline of checkouts, then reads their responses
+    static class Terminal {
+        private final int port;
+        private final String[] names;
+        private final int pipeline;
+        private final int basket;
+        private final Random random;
+
+        Terminal(int port, String[] names, int pipeline, int basket, int seed) {
+            this.port = port;
+            this.names = names;
+            this.pipeline = pipeline;
+            this.basket = basket;
+            this.random = new Random(seed);
+        }
+
+        void run(long deadline, LatencyHistogram latency, AtomicLong completed,
+                AtomicLong outOfStock, AtomicLong unitsSold) throws IOException {
+            String[] lineNames = new String[basket];
+            int[] quantities = new int[basket];
+            int[] units = new int[pipeline];
+            try (InventoryClient client = new InventoryClient("localhost", port)) {
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < pipeline; i++) {
+                        units[i] = 0;
+                        for (int line = 0; line < basket; line++) {
+                            lineNames[line] = names[random.nextInt(names.length)];
+                            quantities[line] = 1 + random.nextInt(3);
+                            units[i] += quantities[line];
+                        }
+                        client.sendCheckout(lineNames, quantities);
+                    }
+                    long sent = System.nanoTime();
+                    client.flush();
+                    for (int i = 0; i < pipeline; i++) {
+                        InventoryClient.Response response = client.read();
+                        latency.recordSince(sent);
+                        if (response.isOk()) {
+                            completed.incrementAndGet();
+                            unitsSold.addAndGet(units[i]);
+                        } else if (response.getStatus() == InventoryProtocol.OUT_OF_STOCK) {
+                            outOfStock.incrementAndGet();
+                        } else {
+                            throw new IOException(InventoryProtocol.statusText(response.getStatus()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (java.util.stream.Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
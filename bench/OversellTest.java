@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Stress test for CheckoutEngine: many lanes sell random baskets from a few
+// shared products at once, far more than there is stock for, so most
+// products run out while several lanes are taking from them.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out OversellTest [--lanes 64] [--baskets 5000] [--products 100]
+//           [--basket 4] [--stock 1000]
+//
+// Each lane counts the units of its completed checkouts per product, and a
+// watcher thread keeps reading every stock level while the lanes run. Fails
+// unless units sold plus stock left equals the starting stock for every
+// product and no stock level was ever seen below zero.
+public class OversellTest {
+
+    public static void main(String[] args) throws Exception {
+        int lanes = 64;
+        int baskets = 5000;
+        int products = 100;
+        int basket = 4;
+        int stock = 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--lanes":
+                    lanes = Integer.parseInt(args[++i]);
+                    break;
+                case "--baskets":
+                    baskets = Integer.parseInt(args[++i]);
+                    break;
+                case "--products":
+                    products = Integer.parseInt(args[++i]);
+                    break;
+                case "--basket":
+                    basket = Integer.parseInt(args[++i]);
+                    break;
+                case "--stock":
+                    stock = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        final InventoryCatalog catalog = new InventoryCatalog();
+        for (int i = 0; i < products; i++) {
+            catalog.add("Product " + i, 100 + i % 5000, stock, 0, 0);
+        }
+        final CheckoutEngine engine = new CheckoutEngine(catalog);
+
+        final AtomicLongArray sold = new AtomicLongArray(products);
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong outOfStock = new AtomicLong();
+        final AtomicIntegerArray lowest = new AtomicIntegerArray(products);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong scans = new AtomicLong();
+        final CountDownLatch go = new CountDownLatch(1);
+
+        // Reads every stock level over and over until the lanes are done
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int count = catalog.size();
+                while (running.get()) {
+                    for (int row = 0; row < count; row++) {
+                        int current = catalog.get(row).getStock();
+                        if (current < lowest.get(row)) {
+                            lowest.set(row, current);
+                        }
+                    }
+                    scans.incrementAndGet();
+                }
+            }
+        }, "stock-watcher");
+        for (int row = 0; row < products; row++) {
+            lowest.set(row, stock);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < lanes; t++) {
+            final Lane lane = new Lane(catalog, engine, baskets, basket, t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    lane.run(sold, completed, outOfStock);
+                }
+            }, "lane-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        watcher.start();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        watcher.join();
+
+        int mismatched = 0;
+        int negative = 0;
+        int soldOut = 0;
+        int lowestSeen = stock;
+        long unitsSold = 0;
+        for (int row = 0; row < products; row++) {
+            Product product = catalog.get(row);
+            int left = product.getStock();
+            lowestSeen = Math.min(lowestSeen, Math.min(left, lowest.get(row)));
+            unitsSold += sold.get(row);
+            if (sold.get(row) + left != stock) {
+                mismatched++;
+                System.out.printf("  %s: %d sold + %d left != %d%n", product.getName(), sold.get(row), left, stock);
+            }
+            if (left < 0 || lowest.get(row) < 0) {
+                negative++;
+            }
+            if (left == 0) {
+                soldOut++;
+            }
+        }
+
+        System.out.printf("%d lanes, %d baskets each, %d products, %d lines per basket, %.1f s%n",
+                lanes, baskets, products, basket, elapsed);
+        System.out.printf("checkouts:     %d completed, %d out of stock%n", completed.get(), outOfStock.get());
+        System.out.printf("units:         %d sold, %d products sold out%n", unitsSold, soldOut);
+        System.out.printf("stock watcher: %d scans, lowest stock seen %d%n", scans.get(), lowestSeen);
+        System.out.printf("stock check:   %d mismatched, %d went negative%s%n",
+                mismatched, negative, (mismatched == 0 && negative == 0) ? "" : "  FAILED");
+        if (mismatched != 0 || negative != 0) {
+            System.exit(1);
+        }
+    }
+
+    // One checkout lane selling random baskets until it has tried them all
+    static class Lane {
+        private final InventoryCatalog catalog;
+        private final CheckoutEngine engine;
+        private final int baskets;
+        private final int basket;
+        private final Random random;
+
+        Lane(InventoryCatalog catalog, CheckoutEngine engine, int baskets, int basket, int seed) {
+            this.catalog = catalog;
+            this.engine = engine;
+            this.baskets = baskets;
+            this.basket = basket;
+            this.random = new Random(seed);
+        }
+
+        void run(AtomicLongArray sold, AtomicLong completed, AtomicLong outOfStock) {
+            int[] rows = new int[basket];
+            List<CheckoutEngine.Line> lines = new ArrayList<>(basket);
+            for (int b = 0; b < baskets; b++) {
+                lines.clear();
+                for (int line = 0; line < basket; line++) {
+                    // The same product may come up twice, as a second line
+                    rows[line] = random.nextInt(catalog.size());
+                    lines.add(new CheckoutEngine.Line(catalog.get(rows[line]), 1 + random.nextInt(3)));
+                }
+                CheckoutEngine.Receipt receipt = engine.checkout(lines);
+                if (receipt.isCompleted()) {
+                    completed.incrementAndGet();
+                    for (int line = 0; line < basket; line++) {
+                        sold.addAndGet(rows[line], lines.get(line).getQuantity());
+                    }
+                } else {
+                    outOfStock.incrementAndGet();
+                }
+            }
+        }
+    }
+}
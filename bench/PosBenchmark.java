@@ -0,0 +1,858 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Benchmarks for catalog load, checkout, promotions, low stock alerts, end
+// of day reports, receipt rendering, persistence and the sales ledger.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out PosBenchmark [--quick] [--sizes 1000,100000,1000000]
+//           [--baskets 1,10,100,500] [--only checkout] [--out results.csv]
+//           [--baseline bench/baseline.csv]
+//
+// Every benchmark is warmed up and then run for a fixed time. Results give
+// the average time and the bytes allocated per operation on the benchmark
+// thread. With --baseline, anything more than 20% slower than the recorded
+// result is reported as a regression and the exit code is 1.
+public class PosBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final double REGRESSION_THRESHOLD = 1.20;
+
+    // Keeps results reachable so the JIT cannot drop the work
+    static volatile Object sink;
+
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    static class Result {
+        final String name;
+        final int catalogSize;
+        final int basketSize;
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(String name, int catalogSize, int basketSize, double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.catalogSize = catalogSize;
+            this.basketSize = basketSize;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        String key() {
+            return name + "," + catalogSize + "," + basketSize;
+        }
+    }
+
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final String only;
+    private final Path workDir;
+    private final List<Result> results = new ArrayList<>();
+
+    PosBenchmark(boolean quick, String only) throws IOException {
+        this.warmupNanos = quick ? 200_000_000L : 1_000_000_000L;
+        this.measureNanos = quick ? 500_000_000L : 3_000_000_000L;
+        this.only = only;
+        this.workDir = Files.createTempDirectory("pos-bench");
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean quick = false;
+        int[] sizes = {1000, 100000, 1000000};
+        int[] baskets = {1, 10, 100, 500};
+        String only = null;
+        String out = null;
+        String baseline = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick":
+                    quick = true;
+                    break;
+                case "--sizes":
+                    sizes = parseInts(args[++i]);
+                    break;
+                case "--baskets":
+                    baskets = parseInts(args[++i]);
+                    break;
+                case "--only":
+                    only = args[++i];
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                case "--baseline":
+                    baseline = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        PosBenchmark bench = new PosBenchmark(quick, only);
+        try {
+            bench.runAll(sizes, baskets);
+        } finally {
+            bench.deleteWorkDir();
+        }
+
+        if (out != null) {
+            bench.write(Paths.get(out));
+        }
+        if (baseline != null && bench.compare(Paths.get(baseline)) > 0) {
+            System.exit(1);
+        }
+    }
+
+    void runAll(int[] sizes, int[] baskets) throws Exception {
+        for (int size : sizes) {
+            Catalog catalog = new Catalog(size, workDir.resolve("inventory-" + size + ".txt"));
+            loadBenchmarks(catalog);
+            checkoutBenchmarks(catalog, baskets);
+            promotionBenchmarks(catalog, baskets);
+            scanBenchmarks(catalog, baskets);
+            cartBenchmarks(catalog, baskets);
+            persistenceBenchmarks(catalog);
+            searchBenchmarks(catalog);
+            importBenchmarks(catalog);
+            lowStockBenchmarks(catalog, baskets);
+            reportBenchmarks(catalog);
+        }
+        receiptBenchmarks(baskets);
+        moneyBenchmarks(baskets);
+        journalBenchmarks(baskets);
+        ledgerBenchmarks(baskets);
+        auditBenchmarks();
+    }
+
+    // --- Benchmarks ---
+
+    private void loadBenchmarks(final Catalog catalog) throws Exception {
+        run("load", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                InventoryCatalog loaded = new InventoryCatalog();
+                loaded.load(InventoryFile.open(catalog.file));
+                return loaded;
+            }
+        });
+        run("load.materialize", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                InventoryCatalog loaded = new InventoryCatalog();
+                loaded.load(InventoryFile.open(catalog.file));
+                return loaded.asList();
+            }
+        });
+        run("load.binary", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                InventoryCatalog loaded = new InventoryCatalog();
+                loaded.load(InventorySnapshot.open(catalog.binaryFile));
+                return loaded;
+            }
+        });
+    }
+
+    private void checkoutBenchmarks(final Catalog catalog, int[] baskets) throws Exception {
+        final CheckoutEngine engine = new CheckoutEngine();
+        for (int basketSize : baskets) {
+            final String[] basketNames = catalog.randomNames(basketSize, 42);
+            run("checkout", catalog.size, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    // Same steps as SimplePOS.checkout(): resolve each cart line, then check out
+                    List<CheckoutEngine.Line> basket = new ArrayList<>(basketNames.length);
+                    for (String name : basketNames) {
+                        basket.add(new CheckoutEngine.Line(catalog.inventory.findByName(name), 1));
+                    }
+                    return engine.checkout(basket);
+                }
+            });
+        }
+    }
+
+    // The same checkout with up to 30,000 products on promotion, a third each
+    // in multi-buy, percentage and 3-product bundle rules, and baskets drawn
+    // from those products only; promo.compile resolves the rules
+    private void promotionBenchmarks(final Catalog catalog, int[] baskets) throws Exception {
+        if (!selected("checkout.promo") && !selected("promo.compile")) {
+            return;
+        }
+        int promoted = Math.min(catalog.size, 30000) / 3 * 3;
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < promoted; i += 3) {
+            lines.add("multibuy,3 for 2 " + i + ",3," + Money.format(2 * catalog.prices[i]) + "," + catalog.names[i]);
+            lines.add("percent,10% off " + i + ",10," + catalog.names[i + 1]);
+        }
+        for (int i = 2; i + 6 < promoted; i += 9) {
+            lines.add("bundle,Deal " + i + "," + Money.format(catalog.prices[i] + catalog.prices[i + 3]) + ","
+                    + catalog.names[i] + "," + catalog.names[i + 3] + "," + catalog.names[i + 6]);
+        }
+        Path file = workDir.resolve("promotions-" + catalog.size + ".txt");
+        Files.write(file, lines);
+        final List<Promotions.Rule> rules = Promotions.read(file);
+
+        run("promo.compile", catalog.size, 0, new Op() {
+            @Override
+            public Object run() {
+                return Promotions.compile(rules, catalog.inventory);
+            }
+        });
+
+        final CheckoutEngine engine = new CheckoutEngine();
+        engine.setPromotions(Promotions.compile(rules, catalog.inventory));
+        for (int basketSize : baskets) {
+            Random random = new Random(42);
+            final String[] basketNames = new String[basketSize];
+            for (int i = 0; i < basketSize; i++) {
+                basketNames[i] = catalog.names[random.nextInt(promoted)];
+            }
+            run("checkout.promo", catalog.size, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    // As in checkout, three of each so multi-buys apply
+                    List<CheckoutEngine.Line> basket = new ArrayList<>(basketNames.length);
+                    for (String name : basketNames) {
+                        basket.add(new CheckoutEngine.Line(catalog.inventory.findByName(name), 3));
+                    }
+                    return engine.checkout(basket);
+                }
+            });
+        }
+    }
+
+    // Scan mode: the scanner's digits and Enter, barcode lookup and the cart
+    // line increment, as in SimplePOS.scanToCart()
+    private void scanBenchmarks(final Catalog catalog, int[] baskets) throws Exception {
+        final Random random = new Random(5);
+        run("scan.lookup", catalog.size, 0, new Op() {
+            @Override
+            public Object run() {
+                return catalog.inventory.findBySku(catalog.skus[random.nextInt(catalog.size)]);
+            }
+        });
+
+        for (int basketSize : baskets) {
+            final Cart cart = new Cart();
+            final String[] scans = new String[basketSize];
+            for (int i = 0; i < basketSize; i++) {
+                scans[i] = String.valueOf(catalog.skus[random.nextInt(catalog.size)]) + '\n';
+            }
+            final BarcodeScanner scanner = new BarcodeScanner(null, new BarcodeScanner.Listener() {
+                @Override
+                public void barcodeScanned(long sku) {
+                    cart.add(catalog.inventory.findBySku(sku), 1);
+                }
+            });
+            run("scan.cart", catalog.size, basketSize, new Op() {
+                private int next;
+
+                @Override
+                public Object run() {
+                    String scan = scans[next++ % scans.length];
+                    for (int i = 0; i < scan.length(); i++) {
+                        scanner.accept(scan.charAt(i));
+                    }
+                    return cart;
+                }
+            });
+            if (selected("scan.cart")) {
+                System.out.printf("scan.cart sustains %,.0f scans/s%n", 1e9 / results.get(results.size() - 1).nanosPerOp);
+            }
+        }
+    }
+
+    // Filling a cart where every product is added twice, reading the
+    // subtotal after each add as the UI does
+    private void cartBenchmarks(final Catalog catalog, int[] baskets) throws Exception {
+        for (int basketSize : baskets) {
+            final Product[] picked = new Product[basketSize];
+            String[] names = catalog.randomNames(basketSize, 3);
+            for (int i = 0; i < basketSize; i++) {
+                picked[i] = catalog.inventory.findByName(names[i]);
+            }
+            final Cart cart = new Cart();
+            run("cart.add", catalog.size, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    cart.clear();
+                    long subtotal = 0;
+                    for (int pass = 0; pass < 2; pass++) {
+                        for (Product product : picked) {
+                            cart.add(product, 1);
+                            subtotal += cart.getSubtotalCents();
+                        }
+                    }
+                    return subtotal;
+                }
+            });
+        }
+    }
+
+    private void persistenceBenchmarks(final Catalog catalog) throws Exception {
+        final Path target = workDir.resolve("snapshot-" + catalog.size + ".txt");
+        run("save.snapshot", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return InventoryFile.write(target, catalog.names, catalog.prices, catalog.stocks, catalog.skus,
+                        catalog.reorderLevels);
+            }
+        });
+        final Path binaryTarget = workDir.resolve("snapshot-" + catalog.size + ".bin");
+        run("save.binary", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return InventorySnapshot.write(binaryTarget, catalog.names, catalog.prices, catalog.stocks,
+                        catalog.skus, catalog.reorderLevels);
+            }
+        });
+
+        // The same saves made crash-safe: temp file, fsync, rotating backups and rename
+        final InventoryGenerations generations = new InventoryGenerations(
+                workDir.resolve("atomic-" + catalog.size + ".txt"), InventoryGenerations.DEFAULT_BACKUPS);
+        run("save.atomic", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return generations.save(false, catalog.names, catalog.prices, catalog.stocks, catalog.skus,
+                        catalog.reorderLevels);
+            }
+        });
+        final InventoryGenerations binaryGenerations = new InventoryGenerations(
+                workDir.resolve("atomic-" + catalog.size + ".bin"), InventoryGenerations.DEFAULT_BACKUPS);
+        run("save.atomic.binary", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return binaryGenerations.save(true, catalog.names, catalog.prices, catalog.stocks, catalog.skus,
+                        catalog.reorderLevels);
+            }
+        });
+    }
+
+    // Nightly supplier feed: parsing it in parallel chunks, then merging it
+    // into the catalog with every row changing a price
+    private void importBenchmarks(final Catalog catalog) throws Exception {
+        final Path feed = workDir.resolve("feed-" + catalog.size + ".csv");
+        long[] raised = new long[catalog.size];
+        for (int i = 0; i < catalog.size; i++) {
+            raised[i] = catalog.prices[i] + 1;
+        }
+        InventoryImport.export(feed, catalog.names, raised, catalog.stocks, catalog.skus, catalog.reorderLevels);
+
+        run("import.read", catalog.size, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return InventoryImport.read(feed);
+            }
+        });
+        if (selected("import.read")) {
+            System.out.printf("import.read sustains %,.0f rows/s%n",
+                    catalog.size * 1e9 / results.get(results.size() - 1).nanosPerOp);
+        }
+
+        final InventoryImport.Rows[] feeds = {InventoryImport.read(feed), InventoryImport.read(catalog.file)};
+        run("import.merge", catalog.size, 0, new Op() {
+            private int next;
+
+            @Override
+            public Object run() {
+                // Alternates between the raised and the original prices
+                return InventoryImport.merge(feeds[next++ % 2], catalog.inventory);
+            }
+        });
+        if (selected("import.merge")) {
+            System.out.printf("import.merge sustains %,.0f rows/s%n",
+                    catalog.size * 1e9 / results.get(results.size() - 1).nanosPerOp);
+        }
+    }
+
+    // End of day inventory report in the common pool, over stock like a real
+    // store's rather than the checkout benchmarks' billion of everything; the
+    // allocation figure misses the pool's threads. See ReportBenchmark for
+    // scaling with threads.
+    private void reportBenchmarks(final Catalog catalog) throws Exception {
+        final int[] stocks = new int[catalog.size];
+        final int[] reorderLevels = new int[catalog.size];
+        for (int i = 0; i < catalog.size; i++) {
+            stocks[i] = i % 1000;
+            reorderLevels[i] = (i % 3 == 0) ? 20 : 0;
+        }
+        run("report.inventory", catalog.size, 0, new Op() {
+            @Override
+            public Object run() {
+                return EndOfDayReport.inventory(ForkJoinPool.commonPool(), catalog.prices, stocks, reorderLevels, 10);
+            }
+        });
+    }
+
+    // Low stock alerts: the same checkout keeping the reorder index up to date
+    // with every product having a level, and listing what to reorder when 1%
+    // of the products are below theirs
+    private void lowStockBenchmarks(final Catalog catalog, int[] baskets) throws Exception {
+        if (!selected("checkout.lowstock") && !selected("lowstock.list")) {
+            return;
+        }
+        final InventoryCatalog inventory = catalog.inventory;
+        for (int row = 0; row < catalog.size; row++) {
+            // Stock is 1,000,000,000, so every 100th product starts out below its level
+            inventory.setReorderLevel(row, (row % 100 == 0) ? 1_000_000_100 : 10);
+        }
+        final CheckoutEngine engine = new CheckoutEngine(inventory);
+        for (int basketSize : baskets) {
+            final String[] basketNames = catalog.randomNames(basketSize, 42);
+            run("checkout.lowstock", catalog.size, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    List<CheckoutEngine.Line> basket = new ArrayList<>(basketNames.length);
+                    for (String name : basketNames) {
+                        basket.add(new CheckoutEngine.Line(inventory.findByName(name), 1));
+                    }
+                    return engine.checkout(basket);
+                }
+            });
+        }
+        run("lowstock.list", catalog.size, 0, new Op() {
+            @Override
+            public Object run() {
+                return inventory.toReorder();
+            }
+        });
+        for (int row = 0; row < catalog.size; row++) {
+            inventory.setReorderLevel(row, 0);
+        }
+    }
+
+    // Type-ahead: building the index, a query per keystroke and keeping the
+    // index up to date when a product is renamed
+    private void searchBenchmarks(final Catalog catalog) throws Exception {
+        // Ids of a store holding the catalog's products, as the catalog builds its own index
+        final ProductStore store = new ProductStore();
+        final int[] ids = new int[catalog.size];
+        for (int i = 0; i < catalog.size; i++) {
+            ids[i] = store.add(catalog.names[i], catalog.prices[i], catalog.stocks[i], catalog.skus[i], 0);
+        }
+        run("search.build", catalog.size, 0, new Op() {
+            @Override
+            public Object run() {
+                ProductSearchIndex index = new ProductSearchIndex(store);
+                index.addAll(ids, ids.length);
+                return index;
+            }
+        });
+
+        // What the search field holds while typing "prod 123" and the like
+        List<String> typed = new ArrayList<>();
+        for (String name : catalog.randomNames(64, 11)) {
+            String number = name.substring(name.indexOf(' ') + 1);
+            for (int length = 1; length <= number.length(); length++) {
+                typed.add(number.substring(0, length));
+                typed.add("prod " + number.substring(0, length));
+            }
+        }
+        final String[] queries = typed.toArray(new String[0]);
+        catalog.inventory.buildIndexes();
+        run("search.query", catalog.size, 0, new Op() {
+            private int next;
+
+            @Override
+            public Object run() {
+                String query = queries[next++ % queries.length];
+                return catalog.inventory.search(query, 200);
+            }
+        });
+
+        final int row = catalog.size / 2;
+        final String name = catalog.names[row];
+        run("search.rename", catalog.size, 0, new Op() {
+            private boolean renamed;
+
+            @Override
+            public Object run() {
+                renamed = !renamed;
+                return catalog.inventory.rename(row, renamed ? name + " renamed" : name);
+            }
+        });
+    }
+
+    private void receiptBenchmarks(int[] baskets) throws Exception {
+        Catalog catalog = new Catalog(1000, workDir.resolve("inventory-receipt.txt"));
+        CheckoutEngine engine = new CheckoutEngine();
+        final ReceiptRenderer renderer = new ReceiptRenderer();
+        final ByteBuffer spool = ByteBuffer.allocateDirect(1 << 20);
+        for (int basketSize : baskets) {
+            List<CheckoutEngine.Line> basket = new ArrayList<>();
+            for (String name : catalog.randomNames(basketSize, 7)) {
+                basket.add(new CheckoutEngine.Line(catalog.inventory.findByName(name), 2));
+            }
+            final CheckoutEngine.Receipt receipt = engine.checkout(basket);
+            run("receipt.text", 0, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    return receipt.toText();
+                }
+            });
+            run("receipt.render", 0, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    return renderer.render(receipt);
+                }
+            });
+            run("receipt.bytes", 0, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    spool.clear();
+                    renderer.render(receipt).writeTo(spool);
+                    return spool;
+                }
+            });
+        }
+    }
+
+    // Basket total and its formatting: double arithmetic with DecimalFormat
+    // (the old checkout path) against cents with Money
+    private void moneyBenchmarks(int[] baskets) throws Exception {
+        for (int basketSize : baskets) {
+            final long[] cents = new long[basketSize];
+            final double[] amounts = new double[basketSize];
+            final int[] quantities = new int[basketSize];
+            Random random = new Random(basketSize);
+            for (int i = 0; i < basketSize; i++) {
+                cents[i] = 1 + random.nextInt(10000);
+                amounts[i] = cents[i] / 100.0;
+                quantities[i] = 1 + random.nextInt(5);
+            }
+
+            double doubleTotal = 0;
+            long exactTotal = 0;
+            for (int i = 0; i < basketSize; i++) {
+                doubleTotal += amounts[i] * quantities[i];
+                exactTotal += cents[i] * quantities[i];
+            }
+            if (!selected("money")) {
+                continue;
+            }
+            System.out.printf("money basket=%d exact=%s double=%s (off by %.3g cents before rounding)%n",
+                    basketSize, Money.format(exactTotal), new DecimalFormat("#.##").format(doubleTotal),
+                    doubleTotal * 100 - exactTotal);
+
+            run("money.double", 0, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    double total = 0;
+                    for (int i = 0; i < amounts.length; i++) {
+                        total += amounts[i] * quantities[i];
+                    }
+                    return new DecimalFormat("#.##").format(total);
+                }
+            });
+            run("money.cents", 0, basketSize, new Op() {
+                @Override
+                public Object run() {
+                    long total = 0;
+                    for (int i = 0; i < cents.length; i++) {
+                        total += Money.times(cents[i], quantities[i]);
+                    }
+                    return Money.format(total);
+                }
+            });
+        }
+    }
+
+    private void journalBenchmarks(int[] baskets) throws Exception {
+        final InventoryJournal journal = new InventoryJournal(workDir.resolve("inventory.journal"));
+        journal.reset(0, 0);
+        for (final int basketSize : baskets) {
+            run("save.journal", 0, basketSize, new Op() {
+                @Override
+                public Object run() throws Exception {
+                    for (int i = 0; i < basketSize; i++) {
+                        journal.stockChanged("Product " + i, -1);
+                    }
+                    journal.commit();
+                    if (journal.size() > (64 << 20)) {
+                        journal.reset(0, 0);
+                    }
+                    return journal;
+                }
+            });
+        }
+        journal.close();
+    }
+
+    // Recording sales in memory, and the daily report over a year of them.
+    // The year has 10,000 sale lines a day (1,000 with --quick) spread
+    // over 5,000 products.
+    private void ledgerBenchmarks(int[] baskets) throws Exception {
+        Catalog catalog = new Catalog(5000, workDir.resolve("inventory-ledger.txt"));
+        CheckoutEngine engine = new CheckoutEngine();
+        for (int basketSize : baskets) {
+            List<CheckoutEngine.Line> basket = new ArrayList<>();
+            for (String name : catalog.randomNames(basketSize, 9)) {
+                basket.add(new CheckoutEngine.Line(catalog.inventory.findByName(name), 1));
+            }
+            final CheckoutEngine.Receipt receipt = engine.checkout(basket);
+            run("ledger.record", 0, basketSize, new Op() {
+                private SalesLedger ledger;
+                private int recorded;
+
+                @Override
+                public Object run() {
+                    // Start over now and then instead of flushing, which is what
+                    // would empty the ledger in SimplePOS
+                    if (recorded++ % 1000 == 0) {
+                        ledger = new SalesLedger(workDir.resolve("sales-unused"));
+                    }
+                    ledger.record(0, receipt);
+                    return ledger;
+                }
+            });
+        }
+
+        if (!selected("ledger.query")) {
+            return;
+        }
+        final Path salesDirectory = workDir.resolve("sales");
+        final java.time.ZoneId zone = java.time.ZoneOffset.UTC;
+        final java.time.LocalDate first = java.time.LocalDate.of(2025, 1, 1);
+        int linesPerDay = (measureNanos < 1_000_000_000L) ? 1000 : 10_000;
+        SalesLedger ledger = new SalesLedger(salesDirectory, zone);
+        Random random = new Random(1);
+        for (int day = 0; day < 365; day++) {
+            long midnight = first.plusDays(day).atStartOfDay(zone).toInstant().toEpochMilli();
+            for (int line = 0; line < linesPerDay; line += 10) {
+                List<CheckoutEngine.Line> basket = new ArrayList<>();
+                for (String name : catalog.randomNames(10, random.nextLong())) {
+                    basket.add(new CheckoutEngine.Line(catalog.inventory.findByName(name), 1 + random.nextInt(3)));
+                }
+                ledger.record(midnight + line * 1000L, engine.checkout(basket));
+            }
+            ledger.flush();
+        }
+        ledger.close();
+
+        final SalesLedger reader = new SalesLedger(salesDirectory, zone);
+        run("ledger.query.year", 365, linesPerDay, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return reader.query(first, first.plusDays(364));
+            }
+        });
+    }
+
+    // Recording a product edit for undo and the audit log, writing it out
+    // with its fsync, and reading back one product's changes from a log of
+    // 100,000 (10,000 with --quick) over 5,000 products: from the whole log,
+    // and from the newest tenth, which skips the older segments unread
+    private void auditBenchmarks() throws Exception {
+        final Product before = new Product("Product 42", 120, 10, 4006381333931L, 5);
+        final Product after = new Product("Product 42", 150, 8, 4006381333931L, 5);
+        run("audit.record", 0, 0, new Op() {
+            private AuditLog log;
+            private int recorded;
+
+            @Override
+            public Object run() {
+                // Start over now and then instead of flushing
+                if (recorded++ % 1000 == 0) {
+                    log = new AuditLog(workDir.resolve("audit-unused"));
+                }
+                return log.record(AuditLog.CHANGED, before, after);
+            }
+        });
+        final AuditLog flushed = new AuditLog(workDir.resolve("audit-flush"));
+        run("audit.flush", 0, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                flushed.record(AuditLog.CHANGED, before, after);
+                flushed.flush();
+                return flushed;
+            }
+        });
+        flushed.close();
+
+        if (!selected("audit.query")) {
+            return;
+        }
+        int records = (measureNanos < 1_000_000_000L) ? 10_000 : 100_000;
+        final AuditLog log = new AuditLog(workDir.resolve("audit"), 1 << 18, 1000);
+        Random random = new Random(3);
+        long recent = 0;
+        for (int i = 0; i < records; i++) {
+            if (i == records - records / 10) {
+                log.flush();
+                Thread.sleep(2);
+                recent = System.currentTimeMillis();
+            }
+            String name = "Product " + random.nextInt(5000);
+            log.record(AuditLog.CHANGED, new Product(name, random.nextInt(10000), random.nextInt(100)),
+                    new Product(name, random.nextInt(10000), random.nextInt(100)));
+            if (i % 1000 == 999) {
+                log.flush();
+            }
+        }
+        log.close();
+        final long from = recent;
+        run("audit.query.product", records, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return log.query("Product 42", Long.MIN_VALUE, Long.MAX_VALUE, 500);
+            }
+        });
+        run("audit.query.recent", records, 0, new Op() {
+            @Override
+            public Object run() throws Exception {
+                return log.query("Product 42", from, Long.MAX_VALUE, 500);
+            }
+        });
+    }
+
+    // --- Harness ---
+
+    private boolean selected(String name) {
+        return only == null || name.startsWith(only);
+    }
+
+    private void run(String name, int catalogSize, int basketSize, Op op) throws Exception {
+        if (!selected(name)) {
+            return;
+        }
+
+        // Warm up
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            sink = op.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long now;
+        do {
+            sink = op.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now - start < measureNanos);
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        Result result = new Result(name, catalogSize, basketSize, (double) (now - start) / ops, (double) allocated / ops);
+        results.add(result);
+        System.out.printf("%-20s catalog=%-8d basket=%-4d %14.1f ns/op %14.1f B/op%n",
+                name, catalogSize, basketSize, result.nanosPerOp, result.bytesPerOp);
+    }
+
+    private void write(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("benchmark,catalog,basket,ns_per_op,bytes_per_op");
+            for (Result result : results) {
+                writer.printf("%s,%.1f,%.1f%n", result.key(), result.nanosPerOp, result.bytesPerOp);
+            }
+        }
+    }
+
+    // Returns the number of regressions against the baseline file
+    private int compare(Path baseline) throws IOException {
+        Map<String, Double> expected = new HashMap<>();
+        for (String line : Files.readAllLines(baseline)) {
+            String[] parts = line.split(",");
+            if (parts.length == 5 && !parts[0].equals("benchmark")) {
+                expected.put(parts[0] + "," + parts[1] + "," + parts[2], Double.parseDouble(parts[3]));
+            }
+        }
+
+        int regressions = 0;
+        for (Result result : results) {
+            Double before = expected.get(result.key());
+            if (before == null) {
+                continue;
+            }
+            double ratio = result.nanosPerOp / before;
+            if (ratio > REGRESSION_THRESHOLD) {
+                regressions++;
+                System.out.printf("REGRESSION %-20s catalog=%-8d basket=%-4d %.2fx slower%n",
+                        result.name, result.catalogSize, result.basketSize, ratio);
+            }
+        }
+        System.out.println(regressions == 0 ? "No regressions against " + baseline : regressions + " regression(s)");
+        return regressions;
+    }
+
+    private void deleteWorkDir() throws IOException {
+        // Deepest first, the sales ledger has a directory per day
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> files = Files.walk(workDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                paths.add(file);
+            }
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    // Synthetic catalog written to an inventory file and loaded from it
+    static class Catalog {
+        final int size;
+        final Path file;
+        final Path binaryFile;
+        final String[] names;
+        final long[] prices;
+        final int[] stocks;
+        final long[] skus;
+        final int[] reorderLevels;
+        final InventoryCatalog inventory = new InventoryCatalog();
+
+        Catalog(int size, Path file) throws IOException {
+            this.size = size;
+            this.file = file;
+            names = new String[size];
+            prices = new long[size];
+            stocks = new int[size];
+            skus = new long[size];
+            reorderLevels = new int[size];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                names[i] = "Product " + i;
+                prices[i] = 1 + random.nextInt(10000);
+                stocks[i] = 1_000_000_000; // Checkout benchmarks never run out
+                skus[i] = 4_000_000_000_000L + i; // 13 digits like an EAN-13 code
+            }
+            InventoryFile.write(file, names, prices, stocks, skus, reorderLevels);
+            binaryFile = file.resolveSibling(file.getFileName() + ".bin");
+            InventorySnapshot.write(binaryFile, names, prices, stocks, skus, reorderLevels);
+            inventory.load(InventoryFile.open(file));
+        }
+
+        String[] randomNames(int count, long seed) {
+            Random random = new Random(seed);
+            String[] picked = new String[count];
+            for (int i = 0; i < count; i++) {
+                picked[i] = names[random.nextInt(size)];
+            }
+            return picked;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+// End of day report over a synthetic inventory and a day of sales with the
+// same number of rows, timed in fork/join pools of each thread count so the
+// speedup over one thread shows how the report scales with cores.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -Xmx3g -cp out ReportBenchmark [--rows 10000000] [--threads 1,2,4,8]
+//           [--runs 5] [--out report.csv]
+//
+// Thread counts default to powers of two up to the number of cores. Each
+// count is warmed up, then the median of the runs is reported. --out appends
+// the results to a CSV file to compare runs over time.
+public class ReportBenchmark {
+    private static final int TOP_PRODUCTS = 10;
+
+    private final int rows;
+    private final long[] prices;
+    private final int[] stocks;
+    private final int[] reorderLevels;
+    private final SalesLedger.DayLines lines;
+
+    // Keeps results reachable so the work is not optimized away
+    static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int rows = 10_000_000;
+        int[] threads = null;
+        int runs = 5;
+        String out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rows":
+                    rows = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    String[] parts = args[++i].split(",");
+                    threads = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        threads[j] = Integer.parseInt(parts[j].trim());
+                    }
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (threads == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int count = 1;
+            while ((1 << count) <= cores) {
+                count++;
+            }
+            threads = new int[count];
+            for (int i = 0; i < count; i++) {
+                threads[i] = 1 << i;
+            }
+        }
+
+        ReportBenchmark bench = new ReportBenchmark(rows);
+        System.out.printf("%,d products, %,d sale lines, %d cores%n", rows, rows,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %8s %12s %14s %9s%n", "report", "threads", "ms", "rows/s", "speedup");
+        double[][] millis = new double[2][threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            ForkJoinPool pool = new ForkJoinPool(threads[t]);
+            try {
+                millis[0][t] = bench.time(pool, true, runs);
+                millis[1][t] = bench.time(pool, false, runs);
+            } finally {
+                pool.shutdown();
+            }
+            bench.print("inventory", threads[t], millis[0][t], millis[0][0]);
+            bench.print("receipts", threads[t], millis[1][t], millis[1][0]);
+        }
+
+        if (out != null) {
+            boolean header = !Files.exists(Paths.get(out));
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out, true))) {
+                if (header) {
+                    writer.println("time,report,rows,threads,ms,speedup");
+                }
+                long now = System.currentTimeMillis();
+                String[] reports = {"inventory", "receipts"};
+                for (int r = 0; r < reports.length; r++) {
+                    for (int t = 0; t < threads.length; t++) {
+                        writer.printf(Locale.ROOT, "%d,%s,%d,%d,%.2f,%.2f%n", now, reports[r], rows, threads[t],
+                                millis[r][t], millis[r][0] / millis[r][t]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Inventory like a real store's: most products in the tens or hundreds,
+    // some sold out, a third with a reorder level. Sales are receipts of 1 to
+    // 20 lines, one second apart.
+    ReportBenchmark(int rows) {
+        this.rows = rows;
+        SplittableRandom random = new SplittableRandom(rows);
+        prices = new long[rows];
+        stocks = new int[rows];
+        reorderLevels = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            prices[i] = 1 + random.nextInt(10000);
+            stocks[i] = (random.nextInt(20) == 0) ? 0 : random.nextInt(random.nextInt(1, 5000));
+            reorderLevels[i] = (random.nextInt(3) == 0) ? random.nextInt(10, 50) : 0;
+        }
+
+        long[] times = new long[rows];
+        int[] quantities = new int[rows];
+        long[] linePrices = new long[rows];
+        long time = LocalDate.of(2026, 10, 17).toEpochDay() * 86_400_000L;
+        for (int line = 0; line < rows; time += 1000) {
+            int end = Math.min(rows, line + random.nextInt(1, 21));
+            for (; line < end; line++) {
+                times[line] = time;
+                quantities[line] = random.nextInt(1, 4);
+                linePrices[line] = prices[random.nextInt(rows)];
+            }
+        }
+        lines = new SalesLedger.DayLines(LocalDate.of(2026, 10, 17), times, quantities, linePrices);
+    }
+
+    private double time(ForkJoinPool pool, boolean inventory, int runs) {
+        for (int i = 0; i < 3; i++) {
+            run(pool, inventory);
+        }
+        double[] millis = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            run(pool, inventory);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis[runs / 2];
+    }
+
+    private void run(ForkJoinPool pool, boolean inventory) {
+        if (inventory) {
+            sink = EndOfDayReport.inventory(pool, prices, stocks, reorderLevels, TOP_PRODUCTS);
+        } else {
+            sink = EndOfDayReport.receipts(pool, lines);
+        }
+    }
+
+    private void print(String report, int threads, double millis, double oneThreadMillis) {
+        System.out.printf("%-10s %8d %12.1f %,14.0f %8.2fx%n", report, threads, millis, rows / (millis / 1000),
+                oneThreadMillis / millis);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+// Time from JVM start until the inventory can be shown and until it is fully
+// loaded, each run in a fresh JVM like a till being switched on. The load
+// goes through PersistenceWorker exactly as SimplePOS does, without the
+// window, so it also runs headless:
+//
+//   standard         load() as without --fast-start
+//   fast, no cache   --fast-start on a CSV inventory.txt with no binary copy yet
+//   fast, cached     --fast-start reading the copy the run before wrote
+//   + AppCDS         as above with a class data sharing archive (--cds)
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out StartupBenchmark [--sizes 10000,1000000] [--runs 3]
+//           [--cds] [--java-opts "-Xmx2g"] [--out startup.csv]
+//
+// --cds needs the classes in a jar, class data sharing ignores directories:
+//
+//   jar cf pos.jar -C out . && java -cp pos.jar StartupBenchmark --cds
+//
+// "shown" is when the first screenful of rows has been read, "ready" when
+// the catalog is indexed and handed to the EDT. The median of the runs is
+// reported.
+public class StartupBenchmark {
+    // Rows read for the preview, about one screenful of the inventory table
+    private static final int VISIBLE_ROWS = 40;
+    private static final long CLOSE_TIMEOUT_MILLIS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--child")) {
+            child(Paths.get(args[1]), args[2].equals("fast"));
+            return;
+        }
+
+        int[] sizes = {10_000, 1_000_000};
+        int runs = 3;
+        boolean cds = false;
+        List<String> javaOpts = new ArrayList<>();
+        String out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    String[] parts = args[++i].split(",");
+                    sizes = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        sizes[j] = Integer.parseInt(parts[j].trim());
+                    }
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--cds":
+                    cds = true;
+                    break;
+                case "--java-opts":
+                    javaOpts.addAll(Arrays.asList(args[++i].trim().split("\\s+")));
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        List<String[]> results = new ArrayList<>();
+        System.out.printf("%-24s %10s %10s %10s%n", "startup", "products", "shown ms", "ready ms");
+        for (int size : sizes) {
+            Path dir = Files.createTempDirectory("pos-startup");
+            try {
+                writeInventory(dir.resolve("inventory.txt"), size);
+                InventoryCache cache = new InventoryCache(dir.resolve("inventory.txt"));
+
+                results.add(measure("standard", dir, size, false, javaOpts, runs, cache, true));
+                results.add(measure("fast, no cache", dir, size, true, javaOpts, runs, cache, true));
+                results.add(measure("fast, cached", dir, size, true, javaOpts, runs, cache, false));
+                if (cds) {
+                    Path archive = dir.resolve("pos.jsa");
+                    List<String> dump = new ArrayList<>(javaOpts);
+                    dump.add("-XX:ArchiveClassesAtExit=" + archive);
+                    run(dir, true, dump);
+                    List<String> shared = new ArrayList<>(javaOpts);
+                    shared.add("-XX:SharedArchiveFile=" + archive);
+                    results.add(measure("fast, cached + AppCDS", dir, size, true, shared, runs, cache, false));
+                }
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+
+        if (out != null) {
+            boolean header = !Files.exists(Paths.get(out));
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out, true))) {
+                if (header) {
+                    writer.println("time,startup,products,shown_ms,ready_ms");
+                }
+                long now = System.currentTimeMillis();
+                for (String[] result : results) {
+                    writer.println(now + ",\"" + result[0] + "\"," + result[1] + "," + result[2] + "," + result[3]);
+                }
+            }
+        }
+    }
+
+    // Median of the runs; with fresh set, the binary copy is removed before each
+    private static String[] measure(String name, Path dir, int size, boolean fast, List<String> javaOpts, int runs,
+            InventoryCache cache, boolean fresh) throws IOException, InterruptedException {
+        long[] shown = new long[runs];
+        long[] ready = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            if (fresh) {
+                cache.invalidate();
+            }
+            long[] times = run(dir, fast, javaOpts);
+            shown[i] = times[0];
+            ready[i] = times[1];
+        }
+        Arrays.sort(shown);
+        Arrays.sort(ready);
+        String shownText = fast ? String.valueOf(shown[runs / 2]) : "-";
+        System.out.printf("%-24s %,10d %10s %10d%n", name, size, shownText, ready[runs / 2]);
+        return new String[] {name, String.valueOf(size), fast ? shownText : "", String.valueOf(ready[runs / 2])};
+    }
+
+    // Starts a JVM running child() and returns its shown and ready times
+    private static long[] run(Path dir, boolean fast, List<String> javaOpts) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(javaOpts);
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("StartupBenchmark");
+        command.add("--child");
+        command.add(dir.toString());
+        command.add(fast ? "fast" : "standard");
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("startup ")) {
+                    result = line;
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IOException("Startup run failed:\n" + output);
+        }
+        String[] fields = result.split(" ");
+        return new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+    }
+
+    // Loads the inventory in dir like SimplePOS does and prints when the first
+    // rows could be shown and when the catalog was ready, since JVM start
+    private static void child(Path dir, boolean fast) throws InterruptedException {
+        final long[] shown = {-1};
+        final long[] ready = {-1};
+        final String[] error = {null};
+        final CountDownLatch done = new CountDownLatch(1);
+        final InventoryCatalog inventory = new InventoryCatalog();
+        PersistenceWorker persistence = new PersistenceWorker(dir.resolve("inventory.txt"),
+                dir.resolve("inventory.journal"), dir.resolve("sales"), dir.resolve("audit"),
+                new PersistenceWorker.Listener() {
+                    @Override
+                    public void inventoryLoaded(InventoryCatalog loaded, boolean fileFound) {
+                        inventory.replaceWith(loaded);
+                        ready[0] = uptime();
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void inventoryLoadFailed(String message) {
+                        error[0] = message;
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void inventoryPreview(InventorySource file) {
+                        inventory.load(file);
+                        for (int row = 0; row < Math.min(VISIBLE_ROWS, inventory.size()); row++) {
+                            inventory.getName(row);
+                        }
+                        shown[0] = uptime();
+                    }
+
+                    @Override
+                    public void snapshotNeeded() {
+                    }
+
+                    @Override
+                    public void persistenceFailed(String message) {
+                        error[0] = message;
+                    }
+
+                    @Override
+                    public void importRead(Path path, InventoryImport.Rows rows) {
+                    }
+
+                    @Override
+                    public void reportReady(EndOfDayReport report) {
+                    }
+
+                    @Override
+                    public void promotionsRead(List<Promotions.Rule> rules) {
+                    }
+
+                    @Override
+                    public void historyRead(String product, List<AuditLog.Record> records) {
+                    }
+                });
+        if (fast) {
+            persistence.fastStart();
+        }
+        persistence.load();
+        done.await();
+        // Lets the worker finish writing the binary copy
+        persistence.close(CLOSE_TIMEOUT_MILLIS);
+        if (error[0] != null) {
+            System.out.println(error[0]);
+            System.exit(1);
+        }
+        System.out.println("startup " + shown[0] + " " + ready[0]);
+        System.exit(0);
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    // Products like a real store's, a third of them with a barcode
+    private static void writeInventory(Path path, int size) throws IOException {
+        SplittableRandom random = new SplittableRandom(size);
+        String[] names = new String[size];
+        long[] prices = new long[size];
+        int[] stocks = new int[size];
+        long[] skus = new long[size];
+        int[] reorderLevels = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = String.format(Locale.ROOT, "Product %07d", i);
+            prices[i] = 1 + random.nextInt(10000);
+            stocks[i] = random.nextInt(500);
+            skus[i] = (i % 3 == 0) ? 4_000_000_000_000L + i : 0;
+            reorderLevels[i] = (i % 5 == 0) ? 10 : 0;
+        }
+        InventoryFile.write(path, names, prices, stocks, skus, reorderLevels);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (java.util.stream.Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
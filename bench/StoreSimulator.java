@@ -0,0 +1,323 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless rush hour: shoppers fill carts and check out on a number of lanes
+// at once, through the same Cart and CheckoutEngine calls SimplePOS makes for
+// "Add to Cart" and "Checkout", against one shared inventory.
+//
+//   javac -d out src/*.java bench/*.java
+//   java -cp out StoreSimulator [--lanes 64] [--shoppers 5000] [--seconds 10]
+//           [--products 100000] [--zipf 1.0] [--basket 12] [--stock 1000]
+//           [--scan-micros 0] [--reorder 0] [--out simulation.csv]
+//
+// Shoppers arrive in a queue of the given size and are served by the lanes,
+// one thread each. Products are picked by Zipf popularity (rank 1 is bought
+// most) and basket sizes are geometric with the given mean. A restocker tops
+// products back up when they run low, so popular products stay contended.
+// With --reorder every product gets that reorder level: the lanes keep the
+// catalog's low stock index current as they sell, and the restocker works
+// from its list instead of scanning every product.
+//
+// Reports shoppers served per second, checkout and whole-visit latency
+// percentiles, and stock contention: items put back because the cart hit the
+// stock limit, and checkouts that lost a race for the last units to another
+// lane. --out appends the summary to a CSV file to compare runs over time.
+public class StoreSimulator {
+    // Products below this fraction of their starting stock are restocked
+    private static final int RESTOCK_DIVISOR = 10;
+    private static final long RESTOCK_INTERVAL_MILLIS = 50;
+    private static final int MAX_BASKET = 500;
+
+    private final InventoryCatalog catalog;
+    private final List<Product> products;
+    private final double[] popularity;
+    private final CheckoutEngine engine;
+    private final boolean reorderAlerts;
+    private final double basketMean;
+    private final long scanNanos;
+
+    private final LatencyHistogram checkoutLatency = new LatencyHistogram("checkout");
+    private final LatencyHistogram visitLatency = new LatencyHistogram("visit");
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong putBack = new AtomicLong();
+    private final AtomicLong lostRaces = new AtomicLong();
+    private final AtomicLong restocked = new AtomicLong();
+    private final AtomicLong alerts = new AtomicLong();
+
+    StoreSimulator(int productCount, int stock, double zipf, double basketMean, long scanNanos, int reorderLevel) {
+        catalog = new InventoryCatalog();
+        for (int i = 0; i < productCount; i++) {
+            catalog.add(new Product("Product " + i, 100 + i % 5000, stock, 0, reorderLevel));
+        }
+        this.products = catalog.asList();
+        this.reorderAlerts = reorderLevel > 0;
+        if (reorderAlerts) {
+            catalog.setLowStockListener(new LowStockIndex.Listener() {
+                @Override
+                public void reorderNeeded(Product product) {
+                    alerts.incrementAndGet();
+                }
+            });
+            catalog.buildIndexes();
+            engine = new CheckoutEngine(catalog);
+        } else {
+            engine = new CheckoutEngine();
+        }
+        this.popularity = zipfDistribution(productCount, zipf);
+        this.basketMean = basketMean;
+        this.scanNanos = scanNanos;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lanes = 64;
+        int shoppers = 5000;
+        int seconds = 10;
+        int productCount = 100000;
+        double zipf = 1.0;
+        double basket = 12;
+        int stock = 1000;
+        long scanMicros = 0;
+        int reorder = 0;
+        String out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--lanes":
+                    lanes = Integer.parseInt(args[++i]);
+                    break;
+                case "--shoppers":
+                    shoppers = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--products":
+                    productCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--zipf":
+                    zipf = Double.parseDouble(args[++i]);
+                    break;
+                case "--basket":
+                    basket = Double.parseDouble(args[++i]);
+                    break;
+                case "--stock":
+                    stock = Integer.parseInt(args[++i]);
+                    break;
+                case "--scan-micros":
+                    scanMicros = Long.parseLong(args[++i]);
+                    break;
+                case "--reorder":
+                    reorder = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    out = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        StoreSimulator simulator = new StoreSimulator(productCount, stock, zipf, basket, scanMicros * 1000, reorder);
+        double elapsed = simulator.run(lanes, shoppers, seconds, stock);
+        simulator.report(elapsed, lanes, shoppers, productCount, zipf, basket, out);
+    }
+
+    // Runs the store for the given time and returns the seconds it took
+    double run(int lanes, int shoppers, int seconds, final int stock) throws InterruptedException {
+        // Shoppers waiting for a lane, as the seed of their basket
+        final BlockingQueue<Long> queue = new ArrayBlockingQueue<>(shoppers);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final SplittableRandom seeds = new SplittableRandom(42);
+        for (int i = 0; i < shoppers; i++) {
+            queue.add(seeds.nextLong());
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int lane = 0; lane < lanes; lane++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(queue, deadline);
+                }
+            }, "lane-" + lane));
+        }
+        Thread restocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restock(deadline, stock);
+            }
+        }, "restocker");
+
+        long start = System.nanoTime();
+        restocker.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        restocker.join();
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // One lane: takes the next shopper, scans their basket into a cart and checks out
+    private void serve(BlockingQueue<Long> queue, long deadline) {
+        Cart cart = new Cart();
+        while (System.nanoTime() < deadline) {
+            Long seed = queue.poll();
+            if (seed == null) {
+                Thread.yield();
+                continue;
+            }
+            SplittableRandom random = new SplittableRandom(seed);
+            long start = System.nanoTime();
+
+            int basket = basketSize(random);
+            for (int i = 0; i < basket; i++) {
+                Product product = products.get(pick(random));
+                if (cart.add(product, 1) == -1) {
+                    // Sold out as far as this cart can tell
+                    putBack.incrementAndGet();
+                }
+                if (scanNanos > 0) {
+                    LockSupport.parkNanos(scanNanos);
+                }
+            }
+
+            if (!cart.isEmpty()) {
+                List<CheckoutEngine.Line> lines = cart.toLines();
+                long checkoutStart = System.nanoTime();
+                CheckoutEngine.Receipt receipt = engine.checkout(lines);
+                checkoutLatency.recordSince(checkoutStart);
+                if (receipt.isCompleted()) {
+                    long sold = 0;
+                    for (int i = 0; i < receipt.getLineCount(); i++) {
+                        sold += receipt.getQuantity(i);
+                    }
+                    items.addAndGet(sold);
+                    served.incrementAndGet();
+                } else {
+                    // Another lane sold the last units after this cart was filled
+                    lostRaces.incrementAndGet();
+                }
+                cart.clear();
+            }
+            visitLatency.recordSince(start);
+
+            // The shopper comes back later with a new basket
+            queue.offer(random.nextLong());
+        }
+    }
+
+    private void restock(long deadline, int stock) {
+        int low = Math.max(1, stock / RESTOCK_DIVISOR);
+        while (System.nanoTime() < deadline) {
+            if (reorderAlerts) {
+                for (Product product : catalog.toReorder()) {
+                    product.addStock(stock - product.getStock());
+                    catalog.stockChanged(product);
+                    restocked.incrementAndGet();
+                }
+            } else {
+                for (Product product : products) {
+                    int current = product.getStock();
+                    if (current < low) {
+                        product.addStock(stock - current);
+                        restocked.incrementAndGet();
+                    }
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RESTOCK_INTERVAL_MILLIS));
+        }
+    }
+
+    // Geometric, at least 1, with the configured mean
+    private int basketSize(SplittableRandom random) {
+        if (basketMean <= 1) {
+            return 1;
+        }
+        double p = 1 / basketMean;
+        int size = 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+        return Math.min(size, MAX_BASKET);
+    }
+
+    // Product index drawn from the popularity distribution
+    private int pick(SplittableRandom random) {
+        double u = random.nextDouble();
+        int lo = 0;
+        int hi = popularity.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (popularity[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Cumulative probabilities of a Zipf distribution with the given exponent
+    static double[] zipfDistribution(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int rank = 1; rank <= n; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        cumulative[n - 1] = 1;
+        return cumulative;
+    }
+
+    private void report(double elapsed, int lanes, int shoppers, int productCount, double zipf,
+            double basket, String out) throws IOException {
+        long checkouts = served.get() + lostRaces.get();
+        System.out.printf("%d lanes, %d shoppers, %d products, zipf %.2f, mean basket %.1f, %.1f s%n",
+                lanes, shoppers, productCount, zipf, basket, elapsed);
+        System.out.printf("served:        %d (%.0f/s), %d items (%.0f/s)%n",
+                served.get(), served.get() / elapsed, items.get(), items.get() / elapsed);
+        System.out.printf("checkout:      p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                checkoutLatency.getP50Micros(), checkoutLatency.getP99Micros(),
+                checkoutLatency.getP999Micros(), checkoutLatency.getMaxMicros());
+        System.out.printf("visit:         p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                visitLatency.getP50Micros(), visitLatency.getP99Micros(),
+                visitLatency.getP999Micros(), visitLatency.getMaxMicros());
+        System.out.printf("contention:    %d items put back, %d checkouts lost a race (%.3f%%), %d restocks%n",
+                putBack.get(), lostRaces.get(), checkouts == 0 ? 0.0 : 100.0 * lostRaces.get() / checkouts,
+                restocked.get());
+        if (reorderAlerts) {
+            System.out.printf("reorder:       %d low stock alerts%n", alerts.get());
+        }
+
+        if (out != null) {
+            boolean header = !Files.exists(Paths.get(out));
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out, true))) {
+                if (header) {
+                    writer.println("time,lanes,shoppers,products,zipf,basket,served_per_s,items_per_s,"
+                            + "checkout_p99_us,visit_p99_us,put_back,lost_races");
+                }
+                writer.printf(Locale.ROOT, "%d,%d,%d,%d,%.2f,%.1f,%.0f,%.0f,%.1f,%.1f,%d,%d%n",
+                        System.currentTimeMillis(), lanes, shoppers, productCount, zipf, basket,
+                        served.get() / elapsed, items.get() / elapsed,
+                        checkoutLatency.getP99Micros(), visitLatency.getP99Micros(),
+                        putBack.get(), lostRaces.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Every change made to the inventory from this till: when, by whom, how it
+// was made, and the product as it was before and after. A product added has
+// no before, a product deleted no after.
+//
+// Records are encoded by record() and appended to disk by flush(), into
+// segments in the audit directory named audit-<time of first record>.log.
+// A segment is closed once it reaches the segment size and the oldest are
+// removed beyond the segment count. Queries skip segments by their names
+// and stream the others, so they never read the whole log at once.
+//
+//   segment: magic "POSA", version, records
+//   record:  payload length (i32), payload CRC32 (i32), payload
+//   payload: time, epoch millis (i64), action (u8), user (u16 length, UTF-8),
+//            before, after
+//   product: present (u8), then if present name (u16 length, UTF-8),
+//            price in cents (i64), stock (i32), SKU (i64), reorder level (i32)
+//
+// record() may be called from any thread, flush(), close() and query()
+// must run on a single thread.
+public class AuditLog {
+    private static final int MAGIC = 0x504F5341; // "POSA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".log";
+    // Two products with names of the longest length
+    private static final int MAX_RECORD_BYTES = 1 << 18;
+
+    public static final long DEFAULT_SEGMENT_BYTES = 8 << 20;
+    public static final int DEFAULT_SEGMENTS = 32;
+
+    // How a change was made
+    public static final byte CHANGED = 1;
+    public static final byte UNDONE = 2;
+    public static final byte REDONE = 3;
+    public static final byte IMPORTED = 4;
+
+    public static class Record {
+        private final long time;
+        private final byte action;
+        private final String user;
+        private final Product before;
+        private final Product after;
+
+        Record(long time, byte action, String user, Product before, Product after) {
+            this.time = time;
+            this.action = action;
+            this.user = user;
+            this.before = before;
+            this.after = after;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public byte getAction() {
+            return action;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        // The product before the change, null if it was added
+        public Product getBefore() {
+            return before;
+        }
+
+        // The product after the change, null if it was deleted
+        public Product getAfter() {
+            return after;
+        }
+
+        // The name after the change, or before it for a deleted product
+        public String getProductName() {
+            return (after != null) ? after.getName() : before.getName();
+        }
+
+        // Like "price 1.20 -> 1.50, stock 10 -> 8" or "added Apple"
+        public String describe() {
+            if (before == null) {
+                return "added " + after.getName();
+            }
+            if (after == null) {
+                return "deleted " + before.getName();
+            }
+            StringBuilder text = new StringBuilder();
+            if (!before.getName().equals(after.getName())) {
+                change(text, "name", before.getName(), after.getName());
+            }
+            if (before.getPriceCents() != after.getPriceCents()) {
+                change(text, "price", Money.format(before.getPriceCents()), Money.format(after.getPriceCents()));
+            }
+            if (before.getStock() != after.getStock()) {
+                change(text, "stock", String.valueOf(before.getStock()), String.valueOf(after.getStock()));
+            }
+            if (before.getSku() != after.getSku()) {
+                change(text, "barcode", skuText(before.getSku()), skuText(after.getSku()));
+            }
+            if (before.getReorderLevel() != after.getReorderLevel()) {
+                change(text, "reorder level", String.valueOf(before.getReorderLevel()),
+                        String.valueOf(after.getReorderLevel()));
+            }
+            return (text.length() == 0) ? "no change" : text.toString();
+        }
+
+        // One line: time, user, action, product and what changed
+        public String toText(ZoneId zone) {
+            return Instant.ofEpochMilli(time).atZone(zone).toLocalDateTime().withNano(0) + "  " + user + "  "
+                    + actionName(action) + "  " + getProductName() + ": " + describe();
+        }
+
+        private static void change(StringBuilder text, String field, String from, String to) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(field).append(' ').append(from).append(" -> ").append(to);
+        }
+
+        private static String skuText(long sku) {
+            return (sku == 0) ? "none" : String.valueOf(sku);
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int segments;
+    private final String user;
+
+    // Records encoded since the last flush, guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+
+    // Only touched by flush() and close()
+    private FileChannel channel;
+    private long segmentSize;
+    private long segmentTime;
+
+    public AuditLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENTS);
+    }
+
+    // The user recorded with each change is -Dpos.user, or the login name
+    public AuditLog(Path directory, long segmentBytes, int segments) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segments = segments;
+        this.user = System.getProperty("pos.user", System.getProperty("user.name", ""));
+    }
+
+    // Records a change made now and returns its payload, which decode() reads
+    // back. The values are read right away, so before has to be a copy taken
+    // ahead of the change, see Product.copy(). Throws IllegalArgumentException,
+    // recording nothing, if a name is too long to store.
+    public synchronized byte[] record(byte action, Product before, Product after) {
+        try {
+            payloadOut.writeLong(System.currentTimeMillis());
+            payloadOut.writeByte(action);
+            writeString(user);
+            writeProduct(before);
+            writeProduct(after);
+        } catch (IOException e) {
+            // Writes go to memory, so only a name can be refused
+            payload.reset();
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        byte[] bytes = payload.toByteArray();
+        payload.reset();
+        crc.reset();
+        crc.update(bytes);
+
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        prefix.putInt(bytes.length).putInt((int) crc.getValue());
+        pending.write(prefix.array(), 0, 8);
+        pending.write(bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    public static Record decode(byte[] payload) {
+        return decode(ByteBuffer.wrap(payload));
+    }
+
+    private static Record decode(ByteBuffer buffer) {
+        long time = buffer.getLong();
+        byte action = buffer.get();
+        String user = readString(buffer);
+        Product before = readProduct(buffer);
+        Product after = readProduct(buffer);
+        return new Record(time, action, user, before, after);
+    }
+
+    // Appends the records made since the last flush and forces them to disk
+    public void flush() throws IOException {
+        byte[] batch;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending.toByteArray();
+            pending.reset();
+        }
+
+        try {
+            if (channel == null) {
+                openSegment(ByteBuffer.wrap(batch).getLong(8));
+            } else if (segmentSize >= segmentBytes) {
+                channel.close();
+                channel = null;
+                newSegment(ByteBuffer.wrap(batch).getLong(8));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            segmentSize += batch.length;
+        } catch (IOException e) {
+            // Keep the batch, a torn tail is cut off when the segment is opened again
+            requeue(batch);
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // The last limit records at or after from and before to (epoch millis)
+    // that changed the named product, or any product when it is null. A
+    // product renamed in a record matches by both names.
+    public List<Record> query(String product, long from, long to, int limit) throws IOException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        byte[] name = (product == null) ? null : product.getBytes(StandardCharsets.UTF_8);
+        ArrayDeque<Record> found = new ArrayDeque<>();
+        List<Path> paths = segmentPaths();
+        for (int i = 0; i < paths.size(); i++) {
+            // Records of one segment are older than the first of the next
+            if (segmentTime(paths.get(i)) >= to
+                    || (i + 1 < paths.size() && segmentTime(paths.get(i + 1)) <= from)) {
+                continue;
+            }
+            try (SegmentReader reader = new SegmentReader(paths.get(i))) {
+                if (!reader.readHeader()) {
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.wrap(reader.record);
+                while (reader.next()) {
+                    if (record.array() != reader.record) {
+                        record = ByteBuffer.wrap(reader.record);
+                    }
+                    long time = record.getLong(0);
+                    if (time < from || time >= to || (name != null && !changes(record, name))) {
+                        continue;
+                    }
+                    if (found.size() == limit) {
+                        found.removeFirst();
+                    }
+                    record.clear();
+                    found.addLast(decode(record));
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    // Continues the newest segment, cutting off a record torn by a crash,
+    // or starts a new one if it is full or unreadable
+    private void openSegment(long time) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> paths = segmentPaths();
+        if (!paths.isEmpty()) {
+            Path last = paths.get(paths.size() - 1);
+            long valid = validLength(last);
+            if (valid >= HEADER_SIZE && valid < segmentBytes) {
+                channel = FileChannel.open(last, StandardOpenOption.WRITE);
+                channel.truncate(valid);
+                channel.position(valid);
+                segmentSize = valid;
+                segmentTime = segmentTime(last);
+                return;
+            }
+            segmentTime = segmentTime(last);
+        }
+        newSegment(time);
+    }
+
+    private void newSegment(long time) throws IOException {
+        Files.createDirectories(directory);
+        // Names stay in order even if the clock went back
+        segmentTime = Math.max(time, segmentTime + 1);
+        Path path = directory.resolve(PREFIX + segmentTime + SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentSize = HEADER_SIZE;
+
+        List<Path> paths = segmentPaths();
+        for (int i = 0; i < paths.size() - segments; i++) {
+            Files.deleteIfExists(paths.get(i));
+        }
+    }
+
+    // Segments oldest first
+    private List<Path> segmentPaths() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return paths;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentTime(path) != -1) {
+                    paths.add(path);
+                }
+            }
+        }
+        Path[] sorted = paths.toArray(new Path[0]);
+        Arrays.sort(sorted, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(segmentTime(a), segmentTime(b));
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    // Time of the segment's first record from its name, -1 for other files
+    private static long segmentTime(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    // Bytes up to the end of the last complete record, 0 without a valid header
+    private static long validLength(Path path) throws IOException {
+        try (SegmentReader reader = new SegmentReader(path)) {
+            if (!reader.readHeader()) {
+                return 0;
+            }
+            long length = HEADER_SIZE;
+            while (reader.next()) {
+                length += 8 + reader.length;
+            }
+            return length;
+        }
+    }
+
+    // Reads a segment's records one at a time into a reused buffer
+    private static class SegmentReader implements Closeable {
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        // The payload of the record next() read, in record[0, length)
+        byte[] record = new byte[256];
+        int length;
+
+        SegmentReader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        }
+
+        boolean readHeader() throws IOException {
+            try {
+                return in.readInt() == MAGIC && in.readInt() <= VERSION;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        // False at the end, or at a record torn or corrupted by a crash
+        boolean next() throws IOException {
+            try {
+                length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    return false;
+                }
+                if (length > record.length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                in.readFully(record, 0, length);
+                crc.reset();
+                crc.update(record, 0, length);
+                return (int) crc.getValue() == checksum;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Whether either product in the payload has the name, compared as bytes
+    // so records of other products are not decoded
+    private static boolean changes(ByteBuffer record, byte[] name) {
+        ByteBuffer buffer = record.duplicate();
+        buffer.position(9);
+        buffer.position(buffer.position() + 2 + (buffer.getShort() & 0xFFFF));
+        for (int side = 0; side < 2; side++) {
+            if (buffer.get() == 0) {
+                continue;
+            }
+            int length = buffer.getShort() & 0xFFFF;
+            int start = buffer.position();
+            if (length == name.length && Arrays.equals(record.array(), start, start + length, name, 0, length)) {
+                return true;
+            }
+            buffer.position(start + length + 24);
+        }
+        return false;
+    }
+
+    private void writeProduct(Product product) throws IOException {
+        if (product == null) {
+            payloadOut.writeByte(0);
+            return;
+        }
+        payloadOut.writeByte(1);
+        writeString(product.getName());
+        payloadOut.writeLong(product.getPriceCents());
+        payloadOut.writeInt(product.getStock());
+        payloadOut.writeLong(product.getSku());
+        payloadOut.writeInt(product.getReorderLevel());
+    }
+
+    private void writeString(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Name is too long: " + text.substring(0, 40) + "...");
+        }
+        payloadOut.writeShort(bytes.length);
+        payloadOut.write(bytes);
+    }
+
+    private static Product readProduct(ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        String name = readString(buffer);
+        long price = buffer.getLong();
+        int stock = buffer.getInt();
+        long sku = buffer.getLong();
+        int reorderLevel = buffer.getInt();
+        return new Product(name, price, stock, sku, reorderLevel);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Puts a failed batch back in front of records made since
+    private synchronized void requeue(byte[] batch) {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream(batch.length + pending.size());
+        merged.write(batch, 0, batch.length);
+        merged.write(pending.toByteArray(), 0, pending.size());
+        pending = merged;
+    }
+
+    static String actionName(byte action) {
+        switch (action) {
+            case CHANGED:
+                return "changed";
+            case UNDONE:
+                return "undone";
+            case REDONE:
+                return "redone";
+            case IMPORTED:
+                return "imported";
+            default:
+                return "action " + action;
+        }
+    }
+
+    //   java AuditLog <audit directory> [product] [from] [to]
+    // Prints the changes to the product, or to every product, between two
+    // dates like 2026-10-17, both included
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: AuditLog <audit directory> [product] [from] [to]");
+            System.exit(2);
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        String product = (args.length > 1 && !args[1].isEmpty()) ? args[1] : null;
+        long from = (args.length > 2) ? LocalDate.parse(args[2]).atStartOfDay(zone).toInstant().toEpochMilli()
+                : Long.MIN_VALUE;
+        long to = (args.length > 3)
+                ? LocalDate.parse(args[3]).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli()
+                : Long.MAX_VALUE;
+        AuditLog log = new AuditLog(Paths.get(args[0]));
+        for (Record record : log.query(product, from, to, Integer.MAX_VALUE)) {
+            System.out.println(record.toText(zone));
+        }
+    }
+}
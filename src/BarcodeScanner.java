@@ -0,0 +1,79 @@
+import java.awt.KeyEventDispatcher;
+import java.awt.KeyboardFocusManager;
+import java.awt.Window;
+import java.awt.event.KeyEvent;
+
+// Keyboard-wedge barcode input. Scanners type the digits of the code
+// followed by Enter; while enabled, those keys are taken out of the
+// window's normal key handling, wherever the focus is, and handed to the
+// listener as one number. Dialogs and other windows are left alone.
+public class BarcodeScanner implements KeyEventDispatcher {
+    // A long holds any 18-digit number; EAN-13 and UPC-A need 13 and 12
+    private static final int MAX_DIGITS = 18;
+
+    public interface Listener {
+        void barcodeScanned(long sku);
+    }
+
+    private final Window window;
+    private final Listener listener;
+    private boolean enabled;
+    private long code;
+    private int digits;
+
+    public BarcodeScanner(Window window, Listener listener) {
+        this.window = window;
+        this.listener = listener;
+    }
+
+    public void install() {
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(this);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        code = 0;
+        digits = 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent e) {
+        if (!enabled || KeyboardFocusManager.getCurrentKeyboardFocusManager().getActiveWindow() != window) {
+            return false;
+        }
+        if (e.getID() == KeyEvent.KEY_TYPED) {
+            return accept(e.getKeyChar());
+        }
+        // Swallow the presses too, so Enter does not also move the table selection
+        int key = e.getKeyCode();
+        return key == KeyEvent.VK_ENTER
+                || (key >= KeyEvent.VK_0 && key <= KeyEvent.VK_9)
+                || (key >= KeyEvent.VK_NUMPAD0 && key <= KeyEvent.VK_NUMPAD9);
+    }
+
+    // Feeds one typed character. Returns false for characters that are not
+    // part of a barcode.
+    public boolean accept(char c) {
+        if (c >= '0' && c <= '9') {
+            if (digits < MAX_DIGITS) {
+                code = code * 10 + (c - '0');
+            }
+            digits++;
+            return true;
+        }
+        if (c == '\n' || c == '\r') {
+            // Longer codes cannot be told apart, drop them
+            if (digits > 0 && digits <= MAX_DIGITS && code != 0) {
+                listener.barcodeScanned(code);
+            }
+            code = 0;
+            digits = 0;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Items being bought, one line per inventory product. Adding a product that
+// is already in the cart raises the quantity of its line, quantities are
+// checked against the product's live stock, and the subtotal is kept up to
+// date with every change instead of being summed at checkout.
+public class Cart {
+    private Product[] products = new Product[8];
+    private long[] prices = new long[8];
+    private int[] quantities = new int[8];
+    private int size;
+    // Inventory product -> line, by identity so renames do not matter
+    private final Map<Product, Integer> lines = new IdentityHashMap<>();
+    private long subtotalCents;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Product getProduct(int line) {
+        checkLine(line);
+        return products[line];
+    }
+
+    public long getPriceCents(int line) {
+        checkLine(line);
+        return prices[line];
+    }
+
+    public int getQuantity(int line) {
+        checkLine(line);
+        return quantities[line];
+    }
+
+    public long getSubtotalCents() {
+        return subtotalCents;
+    }
+
+    // Line holding the product, or -1
+    public int indexOf(Product product) {
+        Integer line = lines.get(product);
+        return (line == null) ? -1 : line;
+    }
+
+    // Adds the quantity to the product's line, creating it if needed, and
+    // returns the line. Returns -1, leaving the cart as it was, if the cart
+    // would then hold more than the product's stock.
+    public int add(Product product, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than zero: " + quantity);
+        }
+        int line = indexOf(product);
+        if (line != -1) {
+            long total = (long) quantities[line] + quantity;
+            return (total <= Integer.MAX_VALUE && setQuantity(line, (int) total)) ? line : -1;
+        }
+        if (quantity > product.getStock()) {
+            return -1;
+        }
+
+        long price = product.getPriceCents();
+        subtotalCents = Math.addExact(subtotalCents, Money.times(price, quantity));
+        if (size == products.length) {
+            products = Arrays.copyOf(products, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        products[size] = product;
+        prices[size] = price;
+        quantities[size] = quantity;
+        lines.put(product, size);
+        return size++;
+    }
+
+    // Returns false, leaving the line as it was, if the quantity is more
+    // than the product's stock
+    public boolean setQuantity(int line, int quantity) {
+        checkLine(line);
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than zero: " + quantity);
+        }
+        if (quantity > products[line].getStock()) {
+            return false;
+        }
+        subtotalCents = Math.addExact(subtotalCents, Money.times(prices[line], quantity - quantities[line]));
+        quantities[line] = quantity;
+        return true;
+    }
+
+    public Product remove(int line) {
+        checkLine(line);
+        Product removed = products[line];
+        subtotalCents -= Money.times(prices[line], quantities[line]);
+        lines.remove(removed);
+
+        // Lines after the removed one shift up by one
+        System.arraycopy(products, line + 1, products, line, size - line - 1);
+        System.arraycopy(prices, line + 1, prices, line, size - line - 1);
+        System.arraycopy(quantities, line + 1, quantities, line, size - line - 1);
+        size--;
+        products[size] = null;
+        for (int i = line; i < size; i++) {
+            lines.put(products[i], i);
+        }
+        return removed;
+    }
+
+    // Picks up a new price for the product after it was edited. Returns its
+    // line, or -1 if it is not in the cart.
+    public int priceChanged(Product product) {
+        int line = indexOf(product);
+        if (line != -1) {
+            long price = product.getPriceCents();
+            subtotalCents = Math.addExact(subtotalCents - Money.times(prices[line], quantities[line]),
+                    Money.times(price, quantities[line]));
+            prices[line] = price;
+        }
+        return line;
+    }
+
+    public void clear() {
+        Arrays.fill(products, 0, size, null);
+        size = 0;
+        lines.clear();
+        subtotalCents = 0;
+    }
+
+    // The cart as checkout lines, in cart order
+    public List<CheckoutEngine.Line> toLines() {
+        List<CheckoutEngine.Line> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new CheckoutEngine.Line(products[i], quantities[i]));
+        }
+        return result;
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= size) {
+            throw new IndexOutOfBoundsException("Cart line " + line + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import javax.swing.table.AbstractTableModel;
+
+public class CartTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"Name", "Price", "Quantity"};
+
+    private final Cart cart;
+
+    public CartTableModel(Cart cart) {
+        this.cart = cart;
+    }
+
+    @Override
+    public int getRowCount() {
+        return cart.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0:
+                return cart.getProduct(row).getName();
+            case 1:
+                return Money.format(cart.getPriceCents(row));
+            default:
+                return cart.getQuantity(row);
+        }
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Disable cart table editing
+    }
+
+    public void itemAdded(int row) {
+        fireTableRowsInserted(row, row);
+    }
+
+    public void itemUpdated(int row) {
+        fireTableRowsUpdated(row, row);
+    }
+
+    public void itemRemoved(int row) {
+        fireTableRowsDeleted(row, row);
+    }
+
+    public void cartChanged() {
+        fireTableDataChanged();
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.List;
+
+// Prices a basket and takes its items out of stock, independent of the UI.
+// Any number of lanes may call checkout() at the same time: stock is only
+// changed through Product's CAS updates, so a product is never oversold.
+public class CheckoutEngine {
+    // Told about each product sold so its low stock index stays current, or null
+    private final InventoryCatalog catalog;
+    // Replaced as a whole when the rules or the inventory change
+    private volatile Promotions promotions = Promotions.NONE;
+
+    public CheckoutEngine() {
+        this(null);
+    }
+
+    public CheckoutEngine(InventoryCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public static class Line {
+        private final Product product;
+        private final int quantity;
+
+        public Line(Product product, int quantity) {
+            this.product = product;
+            this.quantity = quantity;
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+    }
+
+    public static class Receipt {
+        private final String[] names;
+        private final long[] prices;
+        private final int[] quantities;
+        private final Promotions.Discounts discounts;
+        // After discounts
+        private final long total;
+        // Product that ran out, or null if the checkout went through
+        private final Product outOfStock;
+
+        private Receipt(String[] names, long[] prices, int[] quantities, Promotions.Discounts discounts,
+                long total, Product outOfStock) {
+            this.names = names;
+            this.prices = prices;
+            this.quantities = quantities;
+            this.discounts = discounts;
+            this.total = total;
+            this.outOfStock = outOfStock;
+        }
+
+        // A sale priced and taken out of stock elsewhere, by the inventory server
+        public static Receipt completed(String[] names, long[] prices, int[] quantities) {
+            long total = 0;
+            for (int i = 0; i < names.length; i++) {
+                total = Math.addExact(total, Money.times(prices[i], quantities[i]));
+            }
+            return new Receipt(names, prices, quantities, Promotions.NO_DISCOUNTS, total, null);
+        }
+
+        // The same sale with the promotions applied to its lines, which must
+        // be the basket it was checked out from
+        public Receipt withPromotions(Promotions promotions, List<Line> basket) {
+            Promotions.Discounts applied = promotions.evaluate(basket, prices);
+            if (applied.getCount() == 0) {
+                return this;
+            }
+            return new Receipt(names, prices, quantities, applied,
+                    Math.subtractExact(total, applied.getTotalCents()), outOfStock);
+        }
+
+        public boolean isCompleted() {
+            return outOfStock == null;
+        }
+
+        public Product getOutOfStock() {
+            return outOfStock;
+        }
+
+        public int getLineCount() {
+            return names.length;
+        }
+
+        public String getName(int line) {
+            return names[line];
+        }
+
+        // Unit price in cents at the time of sale
+        public long getPriceCents(int line) {
+            return prices[line];
+        }
+
+        public int getQuantity(int line) {
+            return quantities[line];
+        }
+
+        public int getDiscountCount() {
+            return discounts.getCount();
+        }
+
+        // Description of the promotion
+        public String getDiscountName(int discount) {
+            return discounts.getName(discount);
+        }
+
+        // Amount taken off, positive
+        public long getDiscountCents(int discount) {
+            return discounts.getCents(discount);
+        }
+
+        // Exact total in cents
+        public long getTotalCents() {
+            return total;
+        }
+
+        public String toText() {
+            return new ReceiptRenderer().render(this).toString();
+        }
+    }
+
+    public Promotions getPromotions() {
+        return promotions;
+    }
+
+    public void setPromotions(Promotions promotions) {
+        this.promotions = promotions;
+    }
+
+    // Either every line is taken out of stock or none is
+    public Receipt checkout(List<Line> basket) {
+        long start = Metrics.start();
+        int reserved = 0;
+        for (; reserved < basket.size(); reserved++) {
+            Line line = basket.get(reserved);
+            if (!line.getProduct().removeStock(line.getQuantity())) {
+                // Put back what this basket already took
+                for (int i = 0; i < reserved; i++) {
+                    Line taken = basket.get(i);
+                    taken.getProduct().addStock(taken.getQuantity());
+                }
+                Metrics.stop(Metrics.CHECKOUT, start);
+                return new Receipt(new String[0], new long[0], new int[0], Promotions.NO_DISCOUNTS, 0,
+                        line.getProduct());
+            }
+        }
+
+        String[] names = new String[basket.size()];
+        long[] prices = new long[basket.size()];
+        int[] quantities = new int[basket.size()];
+        long total = 0;
+        long items = 0;
+        for (int i = 0; i < basket.size(); i++) {
+            Line line = basket.get(i);
+            names[i] = line.getProduct().getName();
+            prices[i] = line.getProduct().getPriceCents();
+            quantities[i] = line.getQuantity();
+            total = Math.addExact(total, Money.times(prices[i], quantities[i]));
+            items += quantities[i];
+            if (catalog != null) {
+                catalog.stockChanged(line.getProduct());
+            }
+        }
+        Promotions.Discounts discounts = promotions.evaluate(basket, prices);
+        total = Math.subtractExact(total, discounts.getTotalCents());
+        Metrics.sale(basket.size(), items);
+        Metrics.stop(Metrics.CHECKOUT, start);
+        return new Receipt(names, prices, quantities, discounts, total, null);
+    }
+}
@@ -0,0 +1,10 @@
+// JMX view of the Metrics counters
+public interface CountersMXBean {
+    long getSales();
+
+    long getLines();
+
+    long getItems();
+
+    long getSaveBytes();
+}
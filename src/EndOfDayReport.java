@@ -0,0 +1,430 @@
+import java.time.LocalDate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// End of day figures: what the inventory is worth, the products holding the
+// most of that value, how stock is spread, and what the day's receipts
+// looked like. Every figure is a sum, count or maximum over all rows, so the
+// rows are split in halves with fork/join until a piece is small enough for
+// one task, each task adds up its own piece, and the pieces are merged on
+// the way back up. Tasks share nothing but the input arrays, so the work
+// spreads over every core of the pool.
+public class EndOfDayReport {
+    // A task adds up at most this many rows itself rather than splitting
+    private static final int LEAF_ROWS = 1 << 15;
+    // Histograms have a bucket for 0 and one per number of decimal digits,
+    // the last also holding everything larger
+    public static final int BUCKETS = 8;
+
+    // Inventory value, stock-outs and the stock histogram
+    public static class Inventory {
+        private int productCount;
+        private long valueCents;
+        private int outOfStock;
+        private int belowReorderLevel;
+        private final long[] stockHistogram = new long[BUCKETS];
+        private final TopRows top;
+        // Filled in from top once the tasks are merged, highest value first
+        private int[] topRows;
+        private long[] topValues;
+
+        Inventory(int topCount) {
+            top = new TopRows(topCount);
+        }
+
+        public int getProductCount() {
+            return productCount;
+        }
+
+        // Sum of price times stock
+        public long getValueCents() {
+            return valueCents;
+        }
+
+        public int getOutOfStock() {
+            return outOfStock;
+        }
+
+        // Products with a reorder level whose stock is at or below it
+        public int getBelowReorderLevel() {
+            return belowReorderLevel;
+        }
+
+        // Products whose stock falls in the bucket, see bucketLabel()
+        public long getStockCount(int bucket) {
+            return stockHistogram[bucket];
+        }
+
+        public int getTopCount() {
+            return topRows.length;
+        }
+
+        // Row of the product with the i-th highest stock value
+        public int getTopRow(int i) {
+            return topRows[i];
+        }
+
+        public long getTopValueCents(int i) {
+            return topValues[i];
+        }
+
+        private void add(Inventory other) {
+            productCount += other.productCount;
+            valueCents = Math.addExact(valueCents, other.valueCents);
+            outOfStock += other.outOfStock;
+            belowReorderLevel += other.belowReorderLevel;
+            for (int i = 0; i < BUCKETS; i++) {
+                stockHistogram[i] += other.stockHistogram[i];
+            }
+            top.addAll(other.top);
+        }
+    }
+
+    // Totals over the day's receipts
+    public static class Receipts {
+        private int receiptCount;
+        private int lineCount;
+        private long units;
+        private long revenueCents;
+        private long largestCents;
+        private final long[] valueHistogram = new long[BUCKETS];
+
+        public int getReceiptCount() {
+            return receiptCount;
+        }
+
+        // Product lines; promotions' discount lines only count towards revenue
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getRevenueCents() {
+            return revenueCents;
+        }
+
+        public long getLargestCents() {
+            return largestCents;
+        }
+
+        public long getAverageCents() {
+            return (receiptCount == 0) ? 0 : revenueCents / receiptCount;
+        }
+
+        // Receipts whose total in whole dollars falls in the bucket, see bucketLabel()
+        public long getReceiptCount(int bucket) {
+            return valueHistogram[bucket];
+        }
+
+        private void add(Receipts other) {
+            receiptCount += other.receiptCount;
+            lineCount += other.lineCount;
+            units += other.units;
+            revenueCents = Math.addExact(revenueCents, other.revenueCents);
+            largestCents = Math.max(largestCents, other.largestCents);
+            for (int i = 0; i < BUCKETS; i++) {
+                valueHistogram[i] += other.valueHistogram[i];
+            }
+        }
+    }
+
+    private final LocalDate day;
+    private final Inventory inventory;
+    private final Receipts receipts;
+    // Names of the inventory's top rows
+    private final String[] topNames;
+
+    private EndOfDayReport(LocalDate day, Inventory inventory, Receipts receipts, String[] topNames) {
+        this.day = day;
+        this.inventory = inventory;
+        this.receipts = receipts;
+        this.topNames = topNames;
+    }
+
+    // Both reports over a copy of the inventory columns and the day's sale
+    // lines, null if nothing was sold, in the common pool
+    public static EndOfDayReport compute(LocalDate day, String[] names, long[] prices, int[] stocks,
+            int[] reorderLevels, SalesLedger.DayLines lines, int topCount) {
+        Inventory inventory = inventory(ForkJoinPool.commonPool(), prices, stocks, reorderLevels, topCount);
+        Receipts receipts = receipts(ForkJoinPool.commonPool(), lines);
+        String[] topNames = new String[inventory.getTopCount()];
+        for (int i = 0; i < topNames.length; i++) {
+            topNames[i] = names[inventory.getTopRow(i)];
+        }
+        return new EndOfDayReport(day, inventory, receipts, topNames);
+    }
+
+    public static Inventory inventory(ForkJoinPool pool, long[] prices, int[] stocks, int[] reorderLevels,
+            int topCount) {
+        Inventory inventory = pool.invoke(new InventoryTask(prices, stocks, reorderLevels, topCount, 0, prices.length));
+        inventory.topValues = new long[inventory.top.size];
+        inventory.topRows = new int[inventory.top.size];
+        for (int i = inventory.top.size - 1; i >= 0; i--) {
+            inventory.topValues[i] = inventory.top.values[0];
+            inventory.topRows[i] = inventory.top.rows[0];
+            inventory.top.removeLowest();
+        }
+        return inventory;
+    }
+
+    public static Receipts receipts(ForkJoinPool pool, SalesLedger.DayLines lines) {
+        if (lines == null) {
+            return new Receipts();
+        }
+        return pool.invoke(new ReceiptTask(lines, 0, lines.getLineCount()));
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    public Receipts getReceipts() {
+        return receipts;
+    }
+
+    public String getTopName(int i) {
+        return topNames[i];
+    }
+
+    // "0", "1-9", "10-99", ... and "1000000+" for the last bucket
+    public static String bucketLabel(int bucket) {
+        if (bucket == 0) {
+            return "0";
+        }
+        long low = 1;
+        for (int i = 1; i < bucket; i++) {
+            low *= 10;
+        }
+        return (bucket == BUCKETS - 1) ? low + "+" : low + "-" + (low * 10 - 1);
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("End of day ").append(day).append("\n\n");
+        text.append(String.format("Inventory value     $%s%n", Money.format(inventory.valueCents)));
+        text.append(String.format("Products            %,d%n", inventory.productCount));
+        text.append(String.format("Out of stock        %,d%n", inventory.outOfStock));
+        text.append(String.format("Below reorder level %,d%n", inventory.belowReorderLevel));
+        text.append("\nStock\n");
+        for (int i = 0; i < BUCKETS; i++) {
+            text.append(String.format("  %-14s %,12d%n", bucketLabel(i), inventory.stockHistogram[i]));
+        }
+        text.append("\nHighest stock value\n");
+        for (int i = 0; i < topNames.length; i++) {
+            text.append(String.format("  %-30s $%s%n", topNames[i], Money.format(inventory.topValues[i])));
+        }
+
+        text.append(String.format("%nReceipts            %,d%n", receipts.receiptCount));
+        text.append(String.format("Lines               %,d%n", receipts.lineCount));
+        text.append(String.format("Units               %,d%n", receipts.units));
+        text.append(String.format("Revenue             $%s%n", Money.format(receipts.revenueCents)));
+        text.append(String.format("Average receipt     $%s%n", Money.format(receipts.getAverageCents())));
+        text.append(String.format("Largest receipt     $%s%n", Money.format(receipts.largestCents)));
+        text.append("\nReceipts by total ($)\n");
+        for (int i = 0; i < BUCKETS; i++) {
+            text.append(String.format("  %-14s %,12d%n", bucketLabel(i), receipts.valueHistogram[i]));
+        }
+        return text.toString();
+    }
+
+    // 0 for zero or less, otherwise the number of decimal digits
+    private static int bucket(long value) {
+        int bucket = 0;
+        for (long limit = 1; value >= limit && bucket < BUCKETS - 1; limit *= 10) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static class InventoryTask extends RecursiveTask<Inventory> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] prices;
+        private final int[] stocks;
+        private final int[] reorderLevels;
+        private final int topCount;
+        private final int from;
+        private final int to;
+
+        InventoryTask(long[] prices, int[] stocks, int[] reorderLevels, int topCount, int from, int to) {
+            this.prices = prices;
+            this.stocks = stocks;
+            this.reorderLevels = reorderLevels;
+            this.topCount = topCount;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Inventory compute() {
+            if (to - from > LEAF_ROWS) {
+                int middle = (from + to) >>> 1;
+                InventoryTask right = new InventoryTask(prices, stocks, reorderLevels, topCount, middle, to);
+                right.fork();
+                Inventory left = new InventoryTask(prices, stocks, reorderLevels, topCount, from, middle).compute();
+                left.add(right.join());
+                return left;
+            }
+
+            Inventory result = new Inventory(topCount);
+            long total = 0;
+            int outOfStock = 0;
+            int belowReorderLevel = 0;
+            for (int row = from; row < to; row++) {
+                int stock = stocks[row];
+                int level = reorderLevels[row];
+                long value = 0;
+                if (stock <= 0) {
+                    outOfStock++;
+                } else {
+                    value = Money.times(prices[row], stock);
+                    total = Math.addExact(total, value);
+                }
+                if (level > 0 && stock <= level) {
+                    belowReorderLevel++;
+                }
+                result.stockHistogram[bucket(stock)]++;
+                result.top.offer(value, row);
+            }
+            result.productCount = to - from;
+            result.valueCents = total;
+            result.outOfStock = outOfStock;
+            result.belowReorderLevel = belowReorderLevel;
+            return result;
+        }
+    }
+
+    private static class ReceiptTask extends RecursiveTask<Receipts> {
+        private static final long serialVersionUID = 1L;
+
+        private final SalesLedger.DayLines lines;
+        private final int from;
+        private final int to;
+
+        ReceiptTask(SalesLedger.DayLines lines, int from, int to) {
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Receipts compute() {
+            if (to - from > LEAF_ROWS) {
+                // Move the split past the rest of the receipt it falls in
+                int middle = (from + to) >>> 1;
+                while (middle < to && lines.getTime(middle) == lines.getTime(middle - 1)) {
+                    middle++;
+                }
+                if (middle < to) {
+                    ReceiptTask right = new ReceiptTask(lines, middle, to);
+                    right.fork();
+                    Receipts left = new ReceiptTask(lines, from, middle).compute();
+                    left.add(right.join());
+                    return left;
+                }
+            }
+
+            Receipts result = new Receipts();
+            int line = from;
+            while (line < to) {
+                long time = lines.getTime(line);
+                long receiptTotal = 0;
+                do {
+                    if (lines.isDiscount(line)) {
+                        // Only takes the discount off the total
+                        receiptTotal = Math.addExact(receiptTotal, lines.getPriceCents(line));
+                    } else {
+                        int quantity = lines.getQuantity(line);
+                        receiptTotal = Math.addExact(receiptTotal, Money.times(lines.getPriceCents(line), quantity));
+                        result.units += quantity;
+                        result.lineCount++;
+                    }
+                    line++;
+                } while (line < to && lines.getTime(line) == time);
+                result.receiptCount++;
+                result.revenueCents = Math.addExact(result.revenueCents, receiptTotal);
+                result.largestCents = Math.max(result.largestCents, receiptTotal);
+                result.valueHistogram[bucket(receiptTotal / 100)]++;
+            }
+            return result;
+        }
+    }
+
+    // The rows with the highest values seen so far, in a min-heap of fixed
+    // capacity so the lowest of them is the one to replace. Equal values
+    // keep the lower row, so the result does not depend on how rows were split.
+    private static class TopRows {
+        final long[] values;
+        final int[] rows;
+        int size;
+
+        TopRows(int capacity) {
+            values = new long[capacity];
+            rows = new int[capacity];
+        }
+
+        void offer(long value, int row) {
+            if (size < values.length) {
+                siftUp(size++, value, row);
+            } else if (size > 0 && lower(values[0], rows[0], value, row)) {
+                siftDown(0, value, row);
+            }
+        }
+
+        void addAll(TopRows other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.values[i], other.rows[i]);
+            }
+        }
+
+        void removeLowest() {
+            size--;
+            if (size > 0) {
+                siftDown(0, values[size], rows[size]);
+            }
+        }
+
+        private void siftUp(int slot, long value, int row) {
+            while (slot > 0) {
+                int parent = (slot - 1) >>> 1;
+                if (!lower(value, row, values[parent], rows[parent])) {
+                    break;
+                }
+                values[slot] = values[parent];
+                rows[slot] = rows[parent];
+                slot = parent;
+            }
+            values[slot] = value;
+            rows[slot] = row;
+        }
+
+        private void siftDown(int slot, long value, int row) {
+            while (2 * slot + 1 < size) {
+                int child = 2 * slot + 1;
+                if (child + 1 < size && lower(values[child + 1], rows[child + 1], values[child], rows[child])) {
+                    child++;
+                }
+                if (!lower(values[child], rows[child], value, row)) {
+                    break;
+                }
+                values[slot] = values[child];
+                rows[slot] = rows[child];
+                slot = child;
+            }
+            values[slot] = value;
+            rows[slot] = row;
+        }
+
+        // Whether a ranks below b
+        private static boolean lower(long valueA, int rowA, long valueB, int rowB) {
+            return valueA < valueB || (valueA == valueB && rowA > rowB);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Binary copy of a CSV inventory.txt, inventory.txt.cache, which opens
+// without parsing a line of text. inventory.txt.cache.key records the length
+// and CRC32 of the CSV file the copy was made from; the copy is only used
+// while inventory.txt still matches it, so editing the file by hand or
+// restoring a backup simply makes it stale.
+//
+// The key is removed before the copy is rewritten and written after it, so a
+// crash in between leaves no key and the CSV file is read instead.
+public class InventoryCache {
+    private final Path cache;
+    private final Path key;
+
+    public InventoryCache(Path csv) {
+        this.cache = csv.resolveSibling(csv.getFileName() + ".cache");
+        this.key = csv.resolveSibling(csv.getFileName() + ".cache.key");
+    }
+
+    // Opens the copy if it was made from the CSV file as it is now, otherwise
+    // returns null. The source reports the CSV file's length and checksum, as
+    // that is the file the journal was written against.
+    public InventorySource open(Path csv) {
+        try {
+            if (!Files.exists(key) || !Files.exists(cache)) {
+                return null;
+            }
+            String[] fields = new String(Files.readAllBytes(key), StandardCharsets.US_ASCII).trim().split(",");
+            if (fields.length != 2) {
+                return null;
+            }
+            long length = Long.parseLong(fields[0]);
+            long checksum = Long.parseLong(fields[1]);
+            if (Files.size(csv) != length || checksum(csv) != checksum) {
+                return null;
+            }
+            return new Copy(InventorySnapshot.open(cache), length, checksum);
+        } catch (IOException | NumberFormatException e) {
+            // A damaged copy is no worse than a missing one
+            return null;
+        }
+    }
+
+    // Writes a copy of the products for the CSV file with the given length and checksum
+    public void write(String[] names, long[] prices, int[] stocks, long[] skus, int[] reorderLevels,
+            long csvLength, long csvChecksum) throws IOException {
+        Files.deleteIfExists(key);
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try {
+            InventorySnapshot.write(temp, names, prices, stocks, skus, reorderLevels);
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.write(key, (csvLength + "," + csvChecksum + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Writes a copy of every product in the CSV file
+    public void write(InventorySource csv) throws IOException {
+        int size = csv.size();
+        String[] names = new String[size];
+        long[] prices = new long[size];
+        int[] stocks = new int[size];
+        long[] skus = new long[size];
+        int[] reorderLevels = new int[size];
+        for (int row = 0; row < size; row++) {
+            Product product = csv.product(row);
+            names[row] = product.getName();
+            prices[row] = product.getPriceCents();
+            stocks[row] = product.getStock();
+            skus[row] = product.getSku();
+            reorderLevels[row] = product.getReorderLevel();
+        }
+        write(names, prices, stocks, skus, reorderLevels, csv.length(), csv.checksum());
+    }
+
+    // Makes the copy stale without waiting for the CSV file to change
+    public void invalidate() {
+        try {
+            Files.deleteIfExists(key);
+        } catch (IOException e) {
+            // Still stale once the CSV file changes
+        }
+    }
+
+    private static long checksum(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+
+    // The snapshot standing in for the CSV file
+    private static class Copy implements InventorySource {
+        private final InventorySnapshot snapshot;
+        private final long length;
+        private final long checksum;
+
+        Copy(InventorySnapshot snapshot, long length, long checksum) {
+            this.snapshot = snapshot;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+
+        @Override
+        public Product product(int row) {
+            return snapshot.product(row);
+        }
+
+        @Override
+        public int find(String name) {
+            return snapshot.find(name);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long checksum() {
+            return checksum;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class InventoryCatalog {
+    // Product values as columns, see ProductStore
+    private ProductStore store;
+    // Store id of the product at each row in table order, -1 while the row
+    // has not been read from the source file yet
+    private int[] rows;
+    private int size;
+    // Row of each store id
+    private int[] rowOfId;
+    // While set, rows still holding -1 are read from this file on demand
+    // and name lookups go through the file's own index
+    private InventorySource source;
+    // Built on first search, then kept up to date by add, remove and rename
+    private ProductSearchIndex searchIndex;
+    // Barcode -> store id, built on first lookup like the search index
+    private SkuIndex skuIndex;
+    // Products with a reorder level by how close they are to it, built on
+    // first use; checkout lanes update it, so it is read without a lock
+    private volatile LowStockIndex lowStock;
+    private LowStockIndex.Listener lowStockListener;
+
+    public InventoryCatalog() {
+        store = new ProductStore();
+        rows = new int[16];
+        rowOfId = new int[16];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // The product's view, created on first use, see ProductStore
+    public Product get(int row) {
+        return store.view(id(row));
+    }
+
+    // Column values by row, read without creating a Product
+    public String getName(int row) {
+        return store.name(id(row));
+    }
+
+    public long getPriceCents(int row) {
+        return store.priceCents(id(row));
+    }
+
+    public int getStock(int row) {
+        return store.stock(id(row));
+    }
+
+    public long getSku(int row) {
+        return store.sku(id(row));
+    }
+
+    public int getReorderLevel(int row) {
+        return store.reorderLevel(id(row));
+    }
+
+    public Product findByName(String name) {
+        int row = indexOf(name);
+        return (row == -1) ? null : get(row);
+    }
+
+    public int indexOf(String name) {
+        if (source != null) {
+            return source.find(name);
+        }
+        int id = store.find(name);
+        return (id == -1) ? -1 : rowOfId[id];
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) != -1;
+    }
+
+    // Replaces the catalog with the products in the file without reading them yet
+    public void load(InventorySource file) {
+        clear();
+        source = file;
+        rows = new int[Math.max(16, file.size())];
+        Arrays.fill(rows, -1);
+        size = file.size();
+    }
+
+    // Takes over the contents of a catalog loaded elsewhere
+    public void replaceWith(InventoryCatalog other) {
+        store = other.store;
+        rows = Arrays.copyOf(other.rows, other.rows.length);
+        size = other.size;
+        rowOfId = Arrays.copyOf(other.rowOfId, other.rowOfId.length);
+        source = other.source;
+        searchIndex = other.searchIndex;
+        skuIndex = other.skuIndex;
+        lowStock = other.lowStock;
+        if (lowStock != null) {
+            lowStock.setListener(lowStockListener);
+        }
+    }
+
+    public Product findBySku(long sku) {
+        int id = skuIndex().get(sku);
+        return (id == -1) ? null : store.view(id);
+    }
+
+    // Returns false if a product with the same name or barcode is already in
+    // the catalog. Otherwise the product becomes the view of its new row.
+    public boolean add(Product product) {
+        materializeAll();
+        if (skuIndex().get(product.getSku()) != -1) {
+            return false;
+        }
+        int id = store.add(product);
+        if (id == -1) {
+            return false;
+        }
+        addRow(id);
+        stockChanged(product);
+        return true;
+    }
+
+    // The same without creating a Product, for adding many products at once
+    public boolean add(String name, long priceCents, int stock, long sku, int reorderLevel) {
+        materializeAll();
+        if (skuIndex().get(sku) != -1) {
+            return false;
+        }
+        int id = store.add(name, priceCents, stock, sku, reorderLevel);
+        if (id == -1) {
+            return false;
+        }
+        addRow(id);
+        if (reorderLevel > 0) {
+            stockChanged(store.view(id));
+        }
+        return true;
+    }
+
+    // The removed product keeps its values but is no longer a view
+    public Product remove(int row) {
+        materializeAll();
+        checkRow(row);
+        int id = rows[row];
+        Product removed = store.view(id);
+        System.arraycopy(rows, row + 1, rows, row, size - row - 1);
+        size--;
+        if (skuIndex != null) {
+            skuIndex.remove(store.sku(id));
+        }
+        if (searchIndex != null) {
+            searchIndex.remove(id, removed.getName());
+        }
+        if (lowStock != null) {
+            lowStock.remove(removed);
+        }
+        store.remove(id);
+
+        // Rows after the removed one shift up by one
+        for (int i = row; i < size; i++) {
+            rowOfId[rows[i]] = i;
+        }
+        return removed;
+    }
+
+    // Renames the product at the given row, keeping the name index in sync.
+    // Returns false if another product already uses the new name.
+    public boolean rename(int row, String newName) {
+        materializeAll();
+        checkRow(row);
+        int id = rows[row];
+        String oldName = store.name(id);
+        if (oldName.equals(newName)) {
+            return true;
+        }
+        if (!store.rename(id, newName)) {
+            return false;
+        }
+        if (searchIndex != null) {
+            searchIndex.rename(id, oldName);
+        }
+        return true;
+    }
+
+    // Gives the product at the given row a new barcode, 0 for none.
+    // Returns false if another product already uses it.
+    public boolean setSku(int row, long sku) {
+        int id = id(row);
+        int owner = skuIndex().get(sku);
+        if (owner == id) {
+            return true;
+        }
+        if (owner != -1) {
+            return false;
+        }
+        skuIndex.remove(store.sku(id));
+        store.setSku(id, sku);
+        skuIndex.put(sku, id);
+        return true;
+    }
+
+    // Gives the product at the given row a new reorder level, 0 for none
+    public void setReorderLevel(int row, int reorderLevel) {
+        int id = id(row);
+        store.setReorderLevel(id, reorderLevel);
+        LowStockIndex index = lowStock;
+        if (index != null) {
+            // Only products with a level, which always have a view, are in the index
+            Product product = (reorderLevel > 0) ? store.view(id) : store.existingView(id);
+            if (product != null) {
+                index.update(product);
+            }
+        }
+    }
+
+    // Must be called after a product's stock is changed, from any thread, to
+    // keep the low stock index in order
+    public void stockChanged(Product product) {
+        LowStockIndex index = lowStock;
+        if (index != null) {
+            index.update(product);
+        }
+    }
+
+    // Called when a product falls to or below its reorder level, see LowStockIndex
+    public void setLowStockListener(LowStockIndex.Listener listener) {
+        lowStockListener = listener;
+        if (lowStock != null) {
+            lowStock.setListener(listener);
+        }
+    }
+
+    // Products at or below their reorder level, furthest below first
+    public List<Product> toReorder() {
+        return lowStock().toReorder();
+    }
+
+    // For adding many products at once, each of which would otherwise shift
+    // the search index arrays; the next search or buildIndexes() rebuilds it
+    public void dropSearchIndex() {
+        searchIndex = null;
+    }
+
+    public void clear() {
+        store = new ProductStore();
+        rows = new int[16];
+        size = 0;
+        rowOfId = new int[16];
+        source = null;
+        searchIndex = null;
+        skuIndex = null;
+        lowStock = null;
+    }
+
+    // Products with a word starting with each word of the query, see ProductSearchIndex
+    public List<Product> search(String query, int limit) {
+        buildIndexes();
+        return searchIndex.search(query, limit);
+    }
+
+    // Reads every product and indexes names, barcodes and reorder levels; the loader calls
+    // this off the EDT so the first search or scan does not have to
+    public void buildIndexes() {
+        skuIndex();
+        if (searchIndex == null) {
+            ProductSearchIndex index = new ProductSearchIndex(store);
+            index.addAll(rows, size);
+            searchIndex = index;
+        }
+        lowStock();
+    }
+
+    private SkuIndex skuIndex() {
+        if (skuIndex == null) {
+            materializeAll();
+            SkuIndex index = new SkuIndex();
+            for (int row = 0; row < size; row++) {
+                index.put(store.sku(rows[row]), rows[row]);
+            }
+            skuIndex = index;
+        }
+        return skuIndex;
+    }
+
+    private LowStockIndex lowStock() {
+        if (lowStock == null) {
+            materializeAll();
+            LowStockIndex index = new LowStockIndex();
+            for (int row = 0; row < size; row++) {
+                if (store.reorderLevel(rows[row]) > 0) {
+                    index.update(store.view(rows[row]));
+                }
+            }
+            index.setListener(lowStockListener);
+            lowStock = index;
+        }
+        return lowStock;
+    }
+
+    // Every product in row order. The list creates each product's view as
+    // it is read, so prefer the column getters when going over all rows.
+    public List<Product> asList() {
+        materializeAll();
+        return new AbstractList<Product>() {
+            @Override
+            public Product get(int row) {
+                return InventoryCatalog.this.get(row);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void addRow(int id) {
+        skuIndex.put(store.sku(id), id);
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        rows[size] = id;
+        setRowOfId(id, size);
+        size++;
+        if (searchIndex != null) {
+            searchIndex.add(id);
+        }
+    }
+
+    // Store id of the row, reading it from the file first if needed
+    private int id(int row) {
+        checkRow(row);
+        int id = rows[row];
+        if (id == -1) {
+            Product product = source.product(row);
+            id = store.add(product.getName(), product.getPriceCents(), product.getStock(),
+                    product.getSku(), product.getReorderLevel());
+            rows[row] = id;
+            setRowOfId(id, row);
+        }
+        return id;
+    }
+
+    private void setRowOfId(int id, int row) {
+        if (id >= rowOfId.length) {
+            rowOfId = Arrays.copyOf(rowOfId, Math.max(id + 1, rowOfId.length * 2));
+        }
+        rowOfId[id] = row;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    // Reads every remaining row from the file and switches to the store's
+    // name index, so the file is no longer referenced
+    private void materializeAll() {
+        if (source == null) {
+            return;
+        }
+        for (int row = 0; row < size; row++) {
+            id(row);
+        }
+        source = null;
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// Blocking connection to an InventoryServer. The send methods only queue a
+// request and return its id; flush() sends everything queued in one write,
+// and read() returns the responses in request order. A till can so pipeline
+// several requests per round trip. Keep a pipeline to a few thousand
+// requests: the server stops reading from a client that does not read its
+// responses. Not thread-safe.
+public class InventoryClient implements Closeable {
+
+    public static class Response {
+        private final int requestId;
+        private final byte status;
+        private final ByteBuffer payload;
+
+        private Response(int requestId, byte status, ByteBuffer payload) {
+            this.requestId = requestId;
+            this.status = status;
+            this.payload = payload;
+        }
+
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public boolean isOk() {
+            return status == InventoryProtocol.OK;
+        }
+
+        // Positioned after the status byte, see InventoryProtocol
+        public ByteBuffer getPayload() {
+            return payload;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final ByteArrayOutputStream queued = new ByteArrayOutputStream();
+    private final DataOutputStream queuedOut = new DataOutputStream(queued);
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    private final DataOutputStream frameOut = new DataOutputStream(frame);
+    // Received bytes not yet returned by read(), in read mode
+    private ByteBuffer in = ByteBuffer.allocate(64 << 10).flip();
+    private int nextRequestId;
+
+    public InventoryClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    // Connects to "host:port", or to "host" on the default port
+    public static InventoryClient connect(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon == -1) {
+            return new InventoryClient(address, InventoryProtocol.DEFAULT_PORT);
+        }
+        try {
+            return new InventoryClient(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid server address: " + address);
+        }
+    }
+
+    public int sendList() throws IOException {
+        begin(InventoryProtocol.LIST);
+        return end();
+    }
+
+    public int sendCheckout(String[] names, int[] quantities) throws IOException {
+        begin(InventoryProtocol.CHECKOUT);
+        frameOut.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            InventoryProtocol.writeName(frameOut, names[i]);
+            frameOut.writeInt(quantities[i]);
+        }
+        return end();
+    }
+
+    public int sendSave(String name, long priceCents, int stockChange, long sku, int reorderLevel)
+            throws IOException {
+        begin(InventoryProtocol.SAVE);
+        InventoryProtocol.writeName(frameOut, name);
+        frameOut.writeLong(priceCents);
+        frameOut.writeInt(stockChange);
+        frameOut.writeLong(sku);
+        frameOut.writeInt(reorderLevel);
+        return end();
+    }
+
+    public int sendRename(String oldName, String newName) throws IOException {
+        begin(InventoryProtocol.RENAME);
+        InventoryProtocol.writeName(frameOut, oldName);
+        InventoryProtocol.writeName(frameOut, newName);
+        return end();
+    }
+
+    public int sendDelete(String name) throws IOException {
+        begin(InventoryProtocol.DELETE);
+        InventoryProtocol.writeName(frameOut, name);
+        return end();
+    }
+
+    // Sends every queued request
+    public void flush() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(queued.toByteArray());
+        queued.reset();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Waits for the next response
+    public Response read() throws IOException {
+        fill(4);
+        int length = in.getInt();
+        if (length < 5 || length > InventoryProtocol.MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        fill(length);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        ByteBuffer response = ByteBuffer.wrap(bytes);
+        int requestId = response.getInt();
+        byte status = response.get();
+        return new Response(requestId, status, response);
+    }
+
+    // Builds a catalog from the payload of a LIST response
+    public static InventoryCatalog readCatalog(ByteBuffer payload) {
+        InventoryCatalog catalog = new InventoryCatalog();
+        int count = payload.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = InventoryProtocol.readName(payload);
+            long price = payload.getLong();
+            int stock = payload.getInt();
+            long sku = payload.getLong();
+            int reorderLevel = payload.getInt();
+            catalog.add(name, price, stock, sku, reorderLevel);
+        }
+        catalog.buildIndexes();
+        return catalog;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void begin(byte operation) throws IOException {
+        frame.reset();
+        frameOut.writeInt(nextRequestId);
+        frameOut.writeByte(operation);
+    }
+
+    private int end() throws IOException {
+        queuedOut.writeInt(frame.size());
+        frame.writeTo(queuedOut);
+        return nextRequestId++;
+    }
+
+    private void fill(int needed) throws IOException {
+        while (in.remaining() < needed) {
+            if (in.capacity() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                larger.put(in);
+                larger.flip();
+                in = larger;
+            }
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0) {
+                throw new EOFException("The inventory server closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Read-only view of inventory.txt ("name,price,stock", "name,price,stock,sku"
+// or "name,price,stock,sku,reorder level" per line, the SKU empty if none).
+// The file is memory-mapped and scanned once to index the lines; Product
+// objects are only created when a row is asked for.
+public class InventoryFile implements InventorySource {
+    private final MappedByteBuffer data;
+    private final Bytes text = new Bytes();
+    private final NameIndex names;
+    private long[] prices;
+    private int[] stocks;
+    private long[] skus;
+    private int[] reorderLevels;
+
+    private InventoryFile(MappedByteBuffer data) {
+        this.data = data;
+        int capacity = 1024;
+        names = new NameIndex(data, capacity);
+        prices = new long[capacity];
+        stocks = new int[capacity];
+        skus = new long[capacity];
+        reorderLevels = new int[capacity];
+    }
+
+    public static InventoryFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Inventory file is too large: " + length + " bytes");
+            }
+            InventoryFile file = new InventoryFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+            file.scan();
+            return file;
+        }
+    }
+
+    // Why the name cannot be written to a file in this format, or null if it
+    // can; there is no quoting, so a comma or line break would split the line.
+    // The journal and audit log store names with a 16-bit length.
+    public static String checkName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') {
+                return "Product names cannot contain commas or line breaks.";
+            }
+        }
+        if (name.length() > 0xFFFF / 3 && name.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+            return "Product name is too long.";
+        }
+        return null;
+    }
+
+    // Writes the products in inventory.txt format and returns the CRC32 of the
+    // file. The SKU column is left out for products without a barcode, and the
+    // reorder level column for products without one.
+    public static long write(Path path, String[] names, long[] prices, int[] stocks, long[] skus,
+            int[] reorderLevels) throws IOException {
+        checkNames(names);
+        CRC32 checksum = new CRC32();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new CheckedOutputStream(new FileOutputStream(path.toFile()), checksum), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < names.length; i++) {
+                bw.write(names[i] + "," + Money.format(prices[i]) + "," + stocks[i]);
+                if (reorderLevels[i] != 0) {
+                    bw.write("," + (skus[i] != 0 ? String.valueOf(skus[i]) : "") + "," + reorderLevels[i]);
+                } else if (skus[i] != 0) {
+                    bw.write("," + skus[i]);
+                }
+                bw.newLine();
+            }
+        }
+        return checksum.getValue();
+    }
+
+    // Checked before the file is opened, so a bad name leaves it as it was
+    static void checkNames(String[] names) throws IOException {
+        for (String name : names) {
+            if (checkName(name) != null) {
+                throw new IOException("Product name cannot be stored as CSV: " + name);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public long length() {
+        return data.limit();
+    }
+
+    @Override
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().clear());
+        return crc.getValue();
+    }
+
+    @Override
+    public Product product(int row) {
+        return new Product(names.name(row), prices[row], stocks[row], skus[row], reorderLevels[row]);
+    }
+
+    @Override
+    public int find(String name) {
+        return names.find(name);
+    }
+
+    private void scan() {
+        int limit = data.limit();
+        int lineNumber = 0;
+        int pos = 0;
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            lineNumber++;
+            int lineEnd = (end > pos && data.get(end - 1) == '\r') ? end - 1 : end;
+            addLine(pos, lineEnd, lineNumber);
+            pos = end + 1;
+        }
+    }
+
+    private void addLine(int start, int end, int lineNumber) {
+        // Lines without three to five fields are skipped
+        int firstComma = -1;
+        int secondComma = -1;
+        int thirdComma = -1;
+        int fourthComma = -1;
+        for (int i = start; i < end; i++) {
+            if (data.get(i) == ',') {
+                if (firstComma < 0) {
+                    firstComma = i;
+                } else if (secondComma < 0) {
+                    secondComma = i;
+                } else if (thirdComma < 0) {
+                    thirdComma = i;
+                } else if (fourthComma < 0) {
+                    fourthComma = i;
+                } else {
+                    return;
+                }
+            }
+        }
+        int stockEnd = (thirdComma < 0) ? end : thirdComma;
+        int skuEnd = (fourthComma < 0) ? end : fourthComma;
+        if (secondComma < 0 || secondComma == stockEnd - 1 || thirdComma == end - 1 || fourthComma == end - 1) {
+            return;
+        }
+
+        long price;
+        int stock;
+        long sku = 0;
+        int reorderLevel = 0;
+        try {
+            price = Money.parse(text, firstComma + 1, secondComma);
+            stock = parseInt(secondComma + 1, stockEnd);
+            // The SKU may only be empty when a reorder level follows it
+            if (thirdComma >= 0 && thirdComma + 1 < skuEnd) {
+                sku = parseLong(thirdComma + 1, skuEnd);
+            }
+            if (fourthComma >= 0) {
+                reorderLevel = parseInt(fourthComma + 1, end);
+            }
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Line " + lineNumber + ": " + e.getMessage());
+        }
+
+        int row = names.add(start, firstComma - start);
+        if (row == -1) {
+            return; // Duplicate name, the first line wins
+        }
+        if (row == prices.length) {
+            prices = Arrays.copyOf(prices, row * 2);
+            stocks = Arrays.copyOf(stocks, row * 2);
+            skus = Arrays.copyOf(skus, row * 2);
+            reorderLevels = Arrays.copyOf(reorderLevels, row * 2);
+        }
+        prices[row] = price;
+        stocks[row] = stock;
+        skus[row] = sku;
+        reorderLevels[row] = reorderLevel;
+    }
+
+    private String decode(int start, int length) {
+        return NameIndex.decode(data, start, length);
+    }
+
+    private int parseInt(int start, int end) {
+        long value = parseLong(start, end);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + decode(start, end - start) + "\"");
+        }
+        return (int) value;
+    }
+
+    private long parseLong(int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (data.get(pos) == '-' || data.get(pos) == '+')) {
+            negative = data.get(pos) == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("For input string: \"" + decode(start, end - start) + "\"");
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = data.get(pos) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("For input string: \"" + decode(start, end - start) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // The mapped bytes as ASCII chars, so Money.parse() can read prices in place
+    private class Bytes implements CharSequence {
+        @Override
+        public int length() {
+            return data.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return decode(start, end - start);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// inventory.txt and the versions it replaced, inventory.txt.1 (the newest)
+// to inventory.txt.N.
+//
+// A save writes a temp file, forces it to disk, shifts the older versions
+// down one place and moves the temp file over inventory.txt, so a crash at
+// any point leaves either the old or the new file complete, never a torn
+// one. Loading opens the newest version that reads cleanly; a crash between
+// the two moves leaves only inventory.txt.1, which is still the file the
+// journal was written against.
+//
+// With the cache enabled a CSV inventory.txt is opened from its binary copy
+// while that is still current, see InventoryCache, and saves refresh it.
+public class InventoryGenerations {
+    public static final int DEFAULT_BACKUPS = 3;
+
+    private final Path path;
+    private final int backups;
+    // Null unless enableCache() was called
+    private InventoryCache cache;
+    // Set by open()
+    private Path openedPath;
+    private boolean binary;
+    private boolean cached;
+    private String skipped;
+
+    public InventoryGenerations(Path path, int backups) {
+        this.path = path;
+        this.backups = backups;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public void enableCache() {
+        cache = new InventoryCache(path);
+    }
+
+    // The file itself for 0, otherwise the n-th older version
+    public Path generation(int n) {
+        return (n == 0) ? path : path.resolveSibling(path.getFileName() + "." + n);
+    }
+
+    // Opens the newest version that reads cleanly, or returns null if there
+    // is none at all. Throws the first error if every version is damaged.
+    public InventorySource open() throws IOException {
+        openedPath = null;
+        cached = false;
+        skipped = null;
+        IOException firstError = null;
+        for (int n = 0; n <= backups; n++) {
+            Path candidate = generation(n);
+            if (!Files.exists(candidate)) {
+                continue;
+            }
+            try {
+                boolean isBinary = InventorySnapshot.isSnapshot(candidate);
+                if (n == 0 && !isBinary && cache != null) {
+                    InventorySource copy = cache.open(candidate);
+                    if (copy != null) {
+                        openedPath = candidate;
+                        binary = false;
+                        cached = true;
+                        return copy;
+                    }
+                }
+                InventorySource source = isBinary
+                        ? InventorySnapshot.open(candidate)
+                        : InventoryFile.open(candidate);
+                openedPath = candidate;
+                binary = isBinary;
+                return source;
+            } catch (IOException | NumberFormatException e) {
+                String message = candidate.getFileName() + ": " + e.getMessage();
+                skipped = (skipped == null) ? message : skipped + "; " + message;
+                if (firstError == null) {
+                    firstError = new IOException(message, e);
+                }
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+        return null;
+    }
+
+    // The version open() used
+    public Path openedPath() {
+        return openedPath;
+    }
+
+    // Whether the version open() used is a binary snapshot rather than CSV
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Whether open() read inventory.txt from its binary copy
+    public boolean isCached() {
+        return cached;
+    }
+
+    // Writes the binary copy of a CSV inventory.txt just opened without one.
+    // Failing to is not an error, the next start reads the CSV file again.
+    public void updateCache(InventorySource source) {
+        if (cache == null || cached || binary || !path.equals(openedPath)) {
+            return;
+        }
+        try {
+            cache.write(source);
+            cached = true;
+        } catch (IOException e) {
+            cache.invalidate();
+        }
+    }
+
+    // Why newer versions were passed over by open(), or null if none were
+    public String skipped() {
+        return skipped;
+    }
+
+    // Writes the products as the new current version and returns its CRC32
+    public long save(boolean binary, String[] names, long[] prices, int[] stocks, long[] skus,
+            int[] reorderLevels) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            long checksum = binary
+                    ? InventorySnapshot.write(temp, names, prices, stocks, skus, reorderLevels)
+                    : InventoryFile.write(temp, names, prices, stocks, skus, reorderLevels);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            if (backups > 0) {
+                for (int n = backups - 1; n >= 1; n--) {
+                    if (Files.exists(generation(n))) {
+                        move(generation(n), generation(n + 1));
+                    }
+                }
+                if (Files.exists(path)) {
+                    move(path, generation(1));
+                }
+            }
+            move(temp, path);
+            syncDirectory();
+            if (cache != null && !binary) {
+                try {
+                    cache.write(names, prices, stocks, skus, reorderLevels, Files.size(path), checksum);
+                } catch (IOException e) {
+                    cache.invalidate();
+                }
+            }
+            return checksum;
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Makes the renames themselves durable
+    private void syncDirectory() {
+        Path directory = path.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on Windows, where the move is durable anyway
+        }
+    }
+}
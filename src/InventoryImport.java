@@ -0,0 +1,517 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Bulk price and stock updates, e.g. from a supplier feed.
+//
+// read() accepts an inventory file (CSV or binary snapshot) or a CSV feed
+// whose first line names its columns, any of "name", "sku" (or "barcode"),
+// "price", "stock" and "reorder" in any order. An empty field leaves that
+// value as it is. CSV files are memory-mapped and cut into chunks at line breaks, which
+// are parsed in parallel.
+//
+// merge() then applies the rows to the catalog in file order, so a later row
+// for the same product wins. A row matches a product by barcode when it has
+// one, otherwise by name; rows matching nothing add a product if they have a
+// name and a price.
+public final class InventoryImport {
+    // Chunks are at least this large so small files are not split
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+
+    // Marks a price, stock or reorder level field left empty
+    public static final long NO_PRICE = Long.MIN_VALUE;
+    public static final int NO_STOCK = Integer.MIN_VALUE;
+    public static final int NO_REORDER_LEVEL = Integer.MIN_VALUE;
+
+    private static final int NAME = 0;
+    private static final int SKU = 1;
+    private static final int PRICE = 2;
+    private static final int STOCK = 3;
+    private static final int REORDER_LEVEL = 4;
+
+    // Parsed rows as columns; names are null and skus 0 where not given
+    public static class Rows {
+        private String[] names;
+        private long[] skus;
+        private long[] prices;
+        private int[] stocks;
+        private int[] reorderLevels;
+        private int size;
+
+        Rows(int capacity) {
+            capacity = Math.max(capacity, 16);
+            names = new String[capacity];
+            skus = new long[capacity];
+            prices = new long[capacity];
+            stocks = new int[capacity];
+            reorderLevels = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getName(int row) {
+            return names[row];
+        }
+
+        public long getSku(int row) {
+            return skus[row];
+        }
+
+        public long getPriceCents(int row) {
+            return prices[row];
+        }
+
+        public int getStock(int row) {
+            return stocks[row];
+        }
+
+        public int getReorderLevel(int row) {
+            return reorderLevels[row];
+        }
+
+        void add(String name, long sku, long price, int stock, int reorderLevel) {
+            if (size == names.length) {
+                grow(size * 2);
+            }
+            names[size] = name;
+            skus[size] = sku;
+            prices[size] = price;
+            stocks[size] = stock;
+            reorderLevels[size] = reorderLevel;
+            size++;
+        }
+
+        // The caller makes room first
+        void addAll(Rows other) {
+            System.arraycopy(other.names, 0, names, size, other.size);
+            System.arraycopy(other.skus, 0, skus, size, other.size);
+            System.arraycopy(other.prices, 0, prices, size, other.size);
+            System.arraycopy(other.stocks, 0, stocks, size, other.size);
+            System.arraycopy(other.reorderLevels, 0, reorderLevels, size, other.size);
+            size += other.size;
+        }
+
+        private void grow(int capacity) {
+            names = Arrays.copyOf(names, capacity);
+            skus = Arrays.copyOf(skus, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            stocks = Arrays.copyOf(stocks, capacity);
+            reorderLevels = Arrays.copyOf(reorderLevels, capacity);
+        }
+    }
+
+    public static class Result {
+        private int added;
+        private int updated;
+        private int unchanged;
+        private int skipped;
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        // Rows matching no product and lacking a name or price or with a name
+        // inventory.txt cannot hold, or whose barcode belongs to another product
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public String toText() {
+            return added + " added, " + updated + " updated, " + unchanged + " unchanged, " + skipped + " skipped";
+        }
+    }
+
+    private InventoryImport() {
+    }
+
+    public static Rows read(Path path) throws IOException {
+        if (InventorySnapshot.isSnapshot(path)) {
+            InventorySnapshot snapshot = InventorySnapshot.open(path);
+            Rows rows = new Rows(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                Product product = snapshot.product(i);
+                rows.add(product.getName(), product.getSku(), product.getPriceCents(), product.getStock(),
+                        product.getReorderLevel());
+            }
+            return rows;
+        }
+
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Import file is too large: " + channel.size() + " bytes");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // Without a header the file is in inventory.txt order
+        int[] columns = {NAME, PRICE, STOCK, SKU, REORDER_LEVEL};
+        int start = 0;
+        int headerEnd = lineEnd(data, 0);
+        int[] header = parseHeader(data, 0, headerEnd);
+        if (header != null) {
+            columns = header;
+            start = Math.min(headerEnd + 1, data.limit());
+        }
+
+        int threads = ForkJoinPool.commonPool().getParallelism();
+        int chunkSize = Math.max(MIN_CHUNK_BYTES, (data.limit() - start) / (threads * 4) + 1);
+        List<Callable<Rows>> chunks = new ArrayList<>();
+        while (start < data.limit()) {
+            int end = (data.limit() - start <= chunkSize) ? data.limit() : lineEnd(data, start + chunkSize);
+            end = Math.min(end + 1, data.limit());
+            chunks.add(new Chunk(data, start, end, columns));
+            start = end;
+        }
+
+        try {
+            List<Future<Rows>> parsed = ForkJoinPool.commonPool().invokeAll(chunks);
+            if (parsed.size() == 1) {
+                return parsed.get(0).get();
+            }
+            int total = 0;
+            for (Future<Rows> chunk : parsed) {
+                total += chunk.get().size;
+            }
+            Rows rows = new Rows(total);
+            for (Future<Rows> chunk : parsed) {
+                rows.addAll(chunk.get());
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NumberFormatException) {
+                throw (NumberFormatException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Applies the rows to the catalog. Must run on the thread that owns the
+    // catalog; the search index is rebuilt once instead of per added product.
+    public static Result merge(Rows rows, InventoryCatalog catalog) {
+        return merge(rows, catalog, null);
+    }
+
+    // As above, recording each product added or updated in the audit log
+    public static Result merge(Rows rows, InventoryCatalog catalog, AuditLog audit) {
+        Result result = new Result();
+        boolean indexDropped = false;
+        for (int i = 0; i < rows.size; i++) {
+            String name = rows.names[i];
+            long sku = rows.skus[i];
+            long price = rows.prices[i];
+            int stock = rows.stocks[i];
+            int reorderLevel = rows.reorderLevels[i];
+
+            Product product = (sku != 0) ? catalog.findBySku(sku) : null;
+            if (product == null && name != null) {
+                product = catalog.findByName(name);
+            }
+
+            if (product == null) {
+                if (name == null || price == NO_PRICE || InventoryFile.checkName(name) != null) {
+                    result.skipped++;
+                    continue;
+                }
+                if (!indexDropped) {
+                    catalog.dropSearchIndex();
+                    indexDropped = true;
+                }
+                int newStock = (stock == NO_STOCK) ? 0 : stock;
+                int newReorderLevel = (reorderLevel == NO_REORDER_LEVEL) ? 0 : reorderLevel;
+                if (catalog.add(name, price, newStock, sku, newReorderLevel)) {
+                    result.added++;
+                    if (audit != null) {
+                        audit.record(AuditLog.IMPORTED, null, new Product(name, price, newStock, sku, newReorderLevel));
+                    }
+                } else {
+                    result.skipped++;
+                }
+                continue;
+            }
+
+            Product before = (audit != null) ? product.copy() : null;
+            boolean changed = false;
+            if (sku != 0 && product.getSku() != sku) {
+                if (!catalog.setSku(catalog.indexOf(product.getName()), sku)) {
+                    result.skipped++;
+                    continue;
+                }
+                changed = true;
+            }
+            if (price != NO_PRICE && product.getPriceCents() != price) {
+                product.setPriceCents(price);
+                changed = true;
+            }
+            if (stock != NO_STOCK && product.getStock() != stock) {
+                product.setStock(stock);
+                catalog.stockChanged(product);
+                changed = true;
+            }
+            if (reorderLevel != NO_REORDER_LEVEL && product.getReorderLevel() != reorderLevel) {
+                catalog.setReorderLevel(catalog.indexOf(product.getName()), reorderLevel);
+                changed = true;
+            }
+            if (changed) {
+                result.updated++;
+                if (audit != null) {
+                    audit.record(AuditLog.IMPORTED, before, product.copy());
+                }
+            } else {
+                result.unchanged++;
+            }
+        }
+        return result;
+    }
+
+    // Writes the products with a header line, ready to be edited and imported again
+    public static void export(Path path, String[] names, long[] prices, int[] stocks, long[] skus,
+            int[] reorderLevels) throws IOException {
+        InventoryFile.checkNames(names);
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(path.toFile()), StandardCharsets.UTF_8))) {
+            bw.write("name,price,stock,sku,reorder");
+            bw.newLine();
+            for (int i = 0; i < names.length; i++) {
+                bw.write(names[i] + "," + Money.format(prices[i]) + "," + stocks[i] + ",");
+                if (skus[i] != 0) {
+                    bw.write(Long.toString(skus[i]));
+                }
+                bw.write(",");
+                if (reorderLevels[i] != 0) {
+                    bw.write(Integer.toString(reorderLevels[i]));
+                }
+                bw.newLine();
+            }
+        }
+    }
+
+    // Column of each field, or null if the line is not a header
+    private static int[] parseHeader(ByteBuffer data, int start, int end) {
+        if (end > start && data.get(end - 1) == '\r') {
+            end--;
+        }
+        String[] fields = NameIndex.decode(data, start, end - start).split(",", -1);
+        int[] columns = new int[fields.length];
+        boolean key = false;
+        for (int i = 0; i < fields.length; i++) {
+            switch (fields[i].trim().toLowerCase(Locale.ROOT)) {
+                case "name":
+                    columns[i] = NAME;
+                    key = true;
+                    break;
+                case "sku":
+                case "barcode":
+                    columns[i] = SKU;
+                    key = true;
+                    break;
+                case "price":
+                    columns[i] = PRICE;
+                    break;
+                case "stock":
+                    columns[i] = STOCK;
+                    break;
+                case "reorder":
+                    columns[i] = REORDER_LEVEL;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return key ? columns : null;
+    }
+
+    private static int lineEnd(ByteBuffer data, int from) {
+        int pos = from;
+        while (pos < data.limit() && data.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    // Parses the lines between two line breaks
+    private static class Chunk implements Callable<Rows> {
+        private final ByteBuffer data;
+        private final Bytes text;
+        private final int start;
+        private final int end;
+        private final int[] columns;
+
+        Chunk(ByteBuffer data, int start, int end, int[] columns) {
+            this.data = data.duplicate();
+            this.text = new Bytes(this.data);
+            this.start = start;
+            this.end = end;
+            this.columns = columns;
+        }
+
+        @Override
+        public Rows call() {
+            // About 24 bytes per line in a typical feed
+            Rows rows = new Rows((end - start) / 24);
+            int[] fieldStarts = new int[columns.length + 1];
+            int pos = start;
+            while (pos < end) {
+                int lineEnd = pos;
+                while (lineEnd < end && data.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int next = lineEnd + 1;
+                if (lineEnd > pos && data.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > pos) {
+                    try {
+                        addLine(rows, pos, lineEnd, fieldStarts);
+                    } catch (NumberFormatException e) {
+                        throw new NumberFormatException("Line " + lineNumber(pos) + ": " + e.getMessage());
+                    }
+                }
+                pos = next;
+            }
+            return rows;
+        }
+
+        private void addLine(Rows rows, int from, int to, int[] fieldStarts) {
+            // Inventory files may leave out the last column
+            int fields = 1;
+            fieldStarts[0] = from;
+            for (int i = from; i < to; i++) {
+                if (data.get(i) == ',') {
+                    if (fields == columns.length) {
+                        throw new NumberFormatException("Too many fields");
+                    }
+                    fieldStarts[fields++] = i + 1;
+                }
+            }
+            fieldStarts[fields] = to + 1;
+
+            String name = null;
+            long sku = 0;
+            long price = NO_PRICE;
+            int stock = NO_STOCK;
+            int reorderLevel = NO_REORDER_LEVEL;
+            for (int f = 0; f < fields; f++) {
+                int fieldStart = fieldStarts[f];
+                int fieldEnd = fieldStarts[f + 1] - 1;
+                if (fieldEnd == fieldStart) {
+                    continue;
+                }
+                switch (columns[f]) {
+                    case NAME:
+                        name = NameIndex.decode(data, fieldStart, fieldEnd - fieldStart);
+                        break;
+                    case SKU:
+                        sku = parseLong(fieldStart, fieldEnd);
+                        if (sku < 0) {
+                            throw new NumberFormatException("Invalid barcode: " + sku);
+                        }
+                        break;
+                    case PRICE:
+                        price = Money.parse(text, fieldStart, fieldEnd);
+                        break;
+                    case STOCK:
+                        long value = parseLong(fieldStart, fieldEnd);
+                        if (value < Integer.MIN_VALUE + 1 || value > Integer.MAX_VALUE) {
+                            throw new NumberFormatException("Invalid stock: " + value);
+                        }
+                        stock = (int) value;
+                        break;
+                    default:
+                        long level = parseLong(fieldStart, fieldEnd);
+                        if (level < 0 || level > Integer.MAX_VALUE) {
+                            throw new NumberFormatException("Invalid reorder level: " + level);
+                        }
+                        reorderLevel = (int) level;
+                }
+            }
+            if (name != null || sku != 0) {
+                rows.add(name, sku, price, stock, reorderLevel);
+            }
+        }
+
+        private long parseLong(int from, int to) {
+            int pos = from;
+            boolean negative = false;
+            if (data.get(pos) == '-' || data.get(pos) == '+') {
+                negative = data.get(pos) == '-';
+                pos++;
+            }
+            if (pos == to) {
+                throw new NumberFormatException("For input string: \"" + text.subSequence(from, to) + "\"");
+            }
+            long value = 0;
+            for (; pos < to; pos++) {
+                int digit = data.get(pos) - '0';
+                if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                    throw new NumberFormatException("For input string: \"" + text.subSequence(from, to) + "\"");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        // Only needed for error messages, so counted then
+        private int lineNumber(int pos) {
+            int line = 1;
+            for (int i = 0; i < pos; i++) {
+                if (data.get(i) == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
+    }
+
+    // The mapped bytes as ASCII chars, so Money.parse() can read prices in place
+    private static class Bytes implements CharSequence {
+        private final ByteBuffer data;
+
+        Bytes(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return NameIndex.decode(data, start, end - start);
+        }
+    }
+}
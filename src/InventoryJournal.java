@@ -0,0 +1,391 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+
+// Append-only log of inventory changes made since inventory.txt was last written.
+//
+// The journal starts with a header naming the snapshot it applies to (its
+// length and CRC32), so a journal left over from before a compaction is
+// ignored instead of being applied twice. Each record is
+// [payload length][payload CRC32][payload]; replay stops at the first torn
+// or corrupt record.
+//
+// Records may be appended from one thread while another commits them;
+// replay, reset and commit must all run on the same thread.
+public class InventoryJournal {
+    private static final int MAGIC = 0x504F534A; // "POSJ"
+    // Version 1 stored prices as doubles, version 2 as cents
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    private static final byte STOCK_CHANGED = 1;
+    private static final byte PRODUCT_SAVED = 2;
+    private static final byte PRODUCT_RENAMED = 3;
+    private static final byte PRODUCT_DELETED = 4;
+
+    private final Path path;
+    private FileChannel channel;
+    private long size;
+
+    // Records appended since the last commit, guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    // Records taken into each snapshot begun and not yet written, oldest
+    // first, guarded by this. Commits wait while there are any; they are
+    // dropped once their snapshot is written and kept if it fails.
+    private final ArrayDeque<byte[]> snapshotRecords = new ArrayDeque<>();
+    // A journal from an older version was replayed; nothing is appended to it
+    // until a snapshot replaces it
+    private boolean outdated;
+    // Where the last replay() moved a journal it could not apply, null if none
+    private Path setAside;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+
+    public InventoryJournal(Path path) {
+        this.path = path;
+    }
+
+    // Applies the journal to a catalog freshly loaded from the snapshot with the
+    // given length and checksum, then opens the journal for appending.
+    // Returns the number of records applied.
+    public int replay(InventoryCatalog catalog, long snapshotLength, long snapshotChecksum) throws IOException {
+        return replay(catalog, snapshotLength, snapshotChecksum, false);
+    }
+
+    // As above; with fromBackup set the snapshot is an older version loaded
+    // because the newer one was damaged, so a journal written against another
+    // snapshot still holds changes the backup lacks. It is then moved aside
+    // (see setAside()) rather than dropped, and a new journal started.
+    public int replay(InventoryCatalog catalog, long snapshotLength, long snapshotChecksum, boolean fromBackup)
+            throws IOException {
+        close();
+        setAside = null;
+        if (!Files.exists(path)) {
+            reset(snapshotLength, snapshotChecksum);
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        int version = 0;
+        if (buffer.remaining() < HEADER_SIZE
+                || buffer.getInt() != MAGIC
+                || (version = buffer.getInt()) < 1 || version > VERSION
+                || buffer.getLong() != snapshotLength
+                || buffer.getLong() != snapshotChecksum) {
+            if (fromBackup) {
+                setAside = path.resolveSibling(path.getFileName() + ".unapplied-" + System.currentTimeMillis());
+                Files.move(path, setAside);
+            }
+            // Otherwise written against another snapshot, already folded into inventory.txt
+            reset(snapshotLength, snapshotChecksum);
+            return 0;
+        }
+
+        int applied = 0;
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            apply(catalog, buffer.slice(buffer.position(), length), version);
+            buffer.position(buffer.position() + length);
+            applied++;
+        }
+
+        // Drop a torn tail so new records follow the last good one
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.truncate(buffer.position());
+        channel.position(buffer.position());
+        size = buffer.position();
+        synchronized (this) {
+            outdated = version != VERSION;
+        }
+        return applied;
+    }
+
+    // The file replay() moved a mismatched journal to, or null if it kept or
+    // dropped it
+    public Path setAside() {
+        return setAside;
+    }
+
+    // Called when the inventory is copied for a snapshot: records appended so
+    // far are part of it, anything appended later belongs to the next journal
+    public synchronized void beginSnapshot() {
+        snapshotRecords.addLast(pending.toByteArray());
+        pending.reset();
+    }
+
+    // Called instead of reset() when the oldest snapshot begun could not be
+    // written: its records go to the next snapshot begun, which copied the
+    // same changes, or back to this journal if there is none
+    public synchronized void snapshotFailed() {
+        byte[] records = snapshotRecords.pollFirst();
+        if (records == null) {
+            return;
+        }
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        merged.write(records, 0, records.length);
+        if (snapshotRecords.isEmpty()) {
+            merged.write(pending.toByteArray(), 0, pending.size());
+            pending = merged;
+        } else {
+            byte[] next = snapshotRecords.pollFirst();
+            merged.write(next, 0, next.length);
+            snapshotRecords.addFirst(merged.toByteArray());
+        }
+    }
+
+    // Starts an empty journal for the oldest snapshot begun, now written
+    public void reset(long snapshotLength, long snapshotChecksum) throws IOException {
+        close();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(snapshotLength).putLong(snapshotChecksum);
+        header.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(HEADER_SIZE);
+        size = HEADER_SIZE;
+        synchronized (this) {
+            snapshotRecords.pollFirst();
+            outdated = false;
+        }
+    }
+
+    public synchronized void stockChanged(String name, int delta) {
+        try {
+            recordOut.writeByte(STOCK_CHANGED);
+            writeName(name);
+            recordOut.writeInt(delta);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Cannot happen, writes go to memory
+        }
+        endRecord();
+    }
+
+    public synchronized void productSaved(Product product) {
+        try {
+            recordOut.writeByte(PRODUCT_SAVED);
+            writeName(product.getName());
+            recordOut.writeLong(product.getPriceCents());
+            recordOut.writeInt(product.getStock());
+            recordOut.writeLong(product.getSku());
+            recordOut.writeInt(product.getReorderLevel());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endRecord();
+    }
+
+    public synchronized void productRenamed(String oldName, String newName) {
+        try {
+            recordOut.writeByte(PRODUCT_RENAMED);
+            writeName(oldName);
+            writeName(newName);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endRecord();
+    }
+
+    public synchronized void productDeleted(String name) {
+        try {
+            recordOut.writeByte(PRODUCT_DELETED);
+            writeName(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        endRecord();
+    }
+
+    // Writes all records appended since the last commit with a single write
+    // and fsync. Returns false if records were held back, for a snapshot
+    // being written or because the journal is outdated.
+    public boolean commit() throws IOException {
+        byte[] batch;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return true;
+            }
+            if (!snapshotRecords.isEmpty() || outdated) {
+                return false;
+            }
+            if (channel == null) {
+                throw new IOException("Inventory journal is not open");
+            }
+            batch = pending.toByteArray();
+            pending.reset();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Cut off whatever part of the batch made it to disk, the records stay pending
+            try {
+                channel.truncate(size);
+                channel.position(size);
+            } catch (IOException ignored) {
+                // Replay will stop at the torn record instead
+            }
+            requeue(batch);
+            throw e;
+        }
+        size += batch.length;
+        return true;
+    }
+
+    // Bytes currently in the journal file
+    public long size() {
+        return size;
+    }
+
+    // True after replaying a journal written by an older version
+    public synchronized boolean isOutdated() {
+        return outdated;
+    }
+
+    public synchronized boolean hasRecords() {
+        return size > HEADER_SIZE || pending.size() > 0;
+    }
+
+    // Whether any records appended are not in the journal file yet
+    public synchronized boolean hasUnwritten() {
+        return pending.size() > 0 || !snapshotRecords.isEmpty();
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Puts a failed batch back in front of records appended since
+    private synchronized void requeue(byte[] batch) {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        merged.write(batch, 0, batch.length);
+        if (snapshotRecords.isEmpty()) {
+            merged.write(pending.toByteArray(), 0, pending.size());
+            pending = merged;
+        } else {
+            // Part of the snapshot begun since, kept in case it fails
+            byte[] first = snapshotRecords.pollFirst();
+            merged.write(first, 0, first.length);
+            snapshotRecords.addFirst(merged.toByteArray());
+        }
+    }
+
+    private void writeName(String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        recordOut.writeShort(bytes.length);
+        recordOut.write(bytes);
+    }
+
+    private void endRecord() {
+        byte[] payload = record.toByteArray();
+        record.reset();
+        crc.reset();
+        crc.update(payload);
+
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        prefix.putInt(payload.length).putInt((int) crc.getValue());
+        pending.write(prefix.array(), 0, 8);
+        pending.write(payload, 0, payload.length);
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void apply(InventoryCatalog catalog, ByteBuffer record, int version) {
+        byte type = record.get();
+        String name = readName(record);
+        switch (type) {
+            case STOCK_CHANGED: {
+                int delta = record.getInt();
+                Product product = catalog.findByName(name);
+                if (product != null) {
+                    product.setStock(product.getStock() + delta);
+                    catalog.stockChanged(product);
+                }
+                break;
+            }
+            case PRODUCT_SAVED: {
+                long price = (version == 1) ? Money.fromDouble(record.getDouble()) : record.getLong();
+                int stock = record.getInt();
+                Product product = catalog.findByName(name);
+                if (product == null) {
+                    catalog.add(name, price, stock, 0, 0);
+                } else {
+                    product.setPriceCents(price);
+                    product.setStock(stock);
+                    catalog.stockChanged(product);
+                }
+                // Records written before barcodes existed end after the stock,
+                // and those written before reorder levels after the barcode
+                if (record.remaining() >= 8) {
+                    catalog.setSku(catalog.indexOf(name), record.getLong());
+                }
+                if (record.remaining() >= 4) {
+                    catalog.setReorderLevel(catalog.indexOf(name), record.getInt());
+                }
+                break;
+            }
+            case PRODUCT_RENAMED: {
+                String newName = readName(record);
+                int row = catalog.indexOf(name);
+                if (row != -1) {
+                    catalog.rename(row, newName);
+                }
+                break;
+            }
+            case PRODUCT_DELETED: {
+                int row = catalog.indexOf(name);
+                if (row != -1) {
+                    catalog.remove(row);
+                }
+                break;
+            }
+            default:
+                // Unknown record from a newer version, skip it
+                break;
+        }
+    }
+}
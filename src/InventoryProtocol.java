@@ -0,0 +1,91 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Wire format between InventoryServer and InventoryClient over TCP.
+//
+//   request:  length (i32), request id (i32), operation (u8), payload
+//   response: length (i32), request id (i32), status (u8), payload
+//
+// The length counts the bytes after the length field. Numbers are
+// big-endian and names are a u16 byte count followed by UTF-8. A client
+// may send several requests before reading any response; responses come
+// back in request order.
+//
+//   LIST      -> count (i32), count x [name, price (i64), stock (i32), sku (i64),
+//                reorder level (i32)]
+//   CHECKOUT  lines (i32), lines x [name, quantity (i32)]
+//             -> OK: lines x [unit price (i64), stock left (i32)]
+//                OUT_OF_STOCK: name, stock (i32)   UNKNOWN_PRODUCT: name
+//   SAVE      name, price (i64), stock change (i32), sku (i64), reorder level (i32)
+//             -> OK, CONFLICT (barcode taken) or OUT_OF_STOCK: name, stock (i32)
+//             The stock change is added to the server's stock, so edits from
+//             a till with an out of date copy keep other tills' sales; for a
+//             new product it is the starting stock
+//   RENAME    old name, new name -> OK, CONFLICT or UNKNOWN_PRODUCT
+//   DELETE    name -> OK or UNKNOWN_PRODUCT
+public final class InventoryProtocol {
+    public static final int DEFAULT_PORT = 7070;
+    // Larger frames are refused; a full LIST of a million products is about 44 MiB
+    public static final int MAX_FRAME = 256 << 20;
+
+    public static final byte LIST = 1;
+    public static final byte CHECKOUT = 2;
+    public static final byte SAVE = 3;
+    public static final byte RENAME = 4;
+    public static final byte DELETE = 5;
+
+    public static final byte OK = 0;
+    public static final byte OUT_OF_STOCK = 1;
+    public static final byte UNKNOWN_PRODUCT = 2;
+    public static final byte CONFLICT = 3;
+    public static final byte BAD_REQUEST = 4;
+
+    private InventoryProtocol() {
+    }
+
+    public static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Product name is too long: " + name.substring(0, 40) + "...");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readName(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return name;
+    }
+
+    // Returns the buffer, or a larger copy of it, with room for the given bytes
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    public static String statusText(byte status) {
+        switch (status) {
+            case OK:
+                return "OK";
+            case OUT_OF_STOCK:
+                return "Insufficient stock";
+            case UNKNOWN_PRODUCT:
+                return "Product not found";
+            case CONFLICT:
+                return "A product with this name or barcode already exists";
+            case BAD_REQUEST:
+                return "Bad request";
+            default:
+                return "Unknown status " + status;
+        }
+    }
+}
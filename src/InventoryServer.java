@@ -0,0 +1,565 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Holds the one inventory shared by every till in the store. Tills connect
+// over localhost TCP and speak InventoryProtocol. Everything runs on a single
+// selector thread, so requests are applied one after another without locks.
+//
+// Requests read in one pass over the ready connections are applied together:
+// stock changes are summed per product, written to the journal with a single
+// fsync, and only then are the responses sent. A burst of checkouts from many
+// tills costs one disk flush, and no till is told a sale went through before
+// it is on disk.
+public class InventoryServer implements Closeable {
+    // Journal size at which it is folded back into the inventory file
+    private static final long JOURNAL_COMPACT_BYTES = 1 << 20;
+    // A till that stops reading its responses stops being read from
+    private static final int MAX_PENDING_OUTPUT = 4 << 20;
+    private static final int BUFFER_SIZE = 64 << 10;
+    // Every till of a large store may connect at once, e.g. after a restart
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private static class Connection {
+        final SocketChannel channel;
+        // Received bytes not yet parsed into requests, in write mode
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        // Encoded responses, in write mode; the first committed bytes may be sent
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        int committed;
+        // Has responses waiting for the current round's commit
+        boolean answered;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // The inventory file and its backups
+    private final InventoryGenerations inventoryFiles;
+    private final InventoryJournal journal;
+    private final InventoryCatalog catalog = new InventoryCatalog();
+    private final CheckoutEngine engine = new CheckoutEngine();
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    // Snapshots are written in the format the inventory was loaded from
+    private boolean binarySnapshots;
+    private volatile boolean closed;
+
+    // Stock sold this round per product, journaled as one record each
+    private final Map<Product, int[]> stockChanges = new IdentityHashMap<>();
+    private final List<Connection> answered = new ArrayList<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream bodyOut = new DataOutputStream(body);
+
+    // Written by the selector thread only, read by anyone
+    private volatile long requestCount;
+    private volatile long commitCount;
+
+    public InventoryServer(Path inventoryPath, Path journalPath, int port) throws IOException {
+        this.inventoryFiles = new InventoryGenerations(inventoryPath, InventoryGenerations.DEFAULT_BACKUPS);
+        this.journal = new InventoryJournal(journalPath);
+        load();
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // The port actually bound, for servers started on port 0
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    // Journal fsyncs so far; requests per commit shows how well they are batched
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    // Serves requests until close() is called
+    public void run() throws IOException {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    try {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            read(key, connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            send(key, connection);
+                        }
+                    } catch (IOException e) {
+                        // The till went away or sent garbage; the others carry on
+                        drop(key);
+                    }
+                }
+                if (!answered.isEmpty()) {
+                    commit();
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    // Stops run() after the current round; may be called from any thread
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void load() throws IOException {
+        long start = Metrics.start();
+        InventorySource file = inventoryFiles.open();
+        if (file == null) {
+            // Gives the journal a snapshot to build on
+            saveSnapshot();
+            return;
+        }
+        binarySnapshots = inventoryFiles.isBinary();
+        if (inventoryFiles.skipped() != null) {
+            System.err.println("Inventory file was damaged, loaded " + inventoryFiles.openedPath().getFileName()
+                    + " instead (" + inventoryFiles.skipped() + ")");
+        }
+        try {
+            catalog.load(file);
+            boolean fromBackup = !inventoryFiles.path().equals(inventoryFiles.openedPath());
+            journal.replay(catalog, file.length(), file.checksum(), fromBackup);
+            if (journal.setAside() != null) {
+                System.err.println("Inventory journal does not match " + inventoryFiles.openedPath().getFileName()
+                        + ", its changes were not applied and are kept in " + journal.setAside().getFileName());
+            }
+            catalog.buildIndexes();
+        } catch (NumberFormatException e) {
+            throw new IOException("Error loading inventory from file: " + e.getMessage(), e);
+        }
+        Metrics.stop(Metrics.LOAD, start);
+        compactIfNeeded();
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+            }
+        } catch (IOException e) {
+            // Out of file handles, for example; keep serving the tills already connected
+            System.err.println("Error accepting connection: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Never got registered
+                }
+            }
+        }
+    }
+
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            drop(key);
+            return;
+        }
+
+        ByteBuffer in = connection.in;
+        in.flip();
+        int needed = 0;
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 5 || length > InventoryProtocol.MAX_FRAME) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            int start = in.position() + 4;
+            in.position(start + length);
+            handle(connection, in.slice(start, length));
+        }
+        in.compact();
+        if (needed > in.capacity()) {
+            connection.in = InventoryProtocol.ensureRemaining(in, needed - in.position());
+        }
+        updateInterest(key, connection);
+    }
+
+    private void handle(Connection connection, ByteBuffer request) throws IOException {
+        int requestId = request.getInt();
+        byte operation = request.get();
+        body.reset();
+        byte status;
+        try {
+            switch (operation) {
+                case InventoryProtocol.LIST:
+                    status = list();
+                    break;
+                case InventoryProtocol.CHECKOUT:
+                    status = checkout(request);
+                    break;
+                case InventoryProtocol.SAVE:
+                    status = save(request);
+                    break;
+                case InventoryProtocol.RENAME:
+                    status = rename(request);
+                    break;
+                case InventoryProtocol.DELETE:
+                    status = delete(request);
+                    break;
+                default:
+                    status = InventoryProtocol.BAD_REQUEST;
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Truncated request or a name running past its end
+            body.reset();
+            status = InventoryProtocol.BAD_REQUEST;
+        }
+        requestCount++;
+
+        ByteBuffer out = InventoryProtocol.ensureRemaining(connection.out, 9 + body.size());
+        out.putInt(5 + body.size()).putInt(requestId).put(status).put(body.toByteArray());
+        connection.out = out;
+        if (!connection.answered) {
+            connection.answered = true;
+            answered.add(connection);
+        }
+    }
+
+    private byte list() throws IOException {
+        bodyOut.writeInt(catalog.size());
+        for (int row = 0; row < catalog.size(); row++) {
+            InventoryProtocol.writeName(bodyOut, catalog.getName(row));
+            bodyOut.writeLong(catalog.getPriceCents(row));
+            bodyOut.writeInt(catalog.getStock(row));
+            bodyOut.writeLong(catalog.getSku(row));
+            bodyOut.writeInt(catalog.getReorderLevel(row));
+        }
+        return InventoryProtocol.OK;
+    }
+
+    private byte checkout(ByteBuffer request) throws IOException {
+        int lines = request.getInt();
+        // Each line takes at least 6 bytes
+        if (lines <= 0 || lines > request.remaining() / 6) {
+            return InventoryProtocol.BAD_REQUEST;
+        }
+        List<CheckoutEngine.Line> basket = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            String name = InventoryProtocol.readName(request);
+            int quantity = request.getInt();
+            if (quantity <= 0) {
+                return InventoryProtocol.BAD_REQUEST;
+            }
+            Product product = catalog.findByName(name);
+            if (product == null) {
+                InventoryProtocol.writeName(bodyOut, name);
+                return InventoryProtocol.UNKNOWN_PRODUCT;
+            }
+            basket.add(new CheckoutEngine.Line(product, quantity));
+        }
+
+        CheckoutEngine.Receipt receipt = engine.checkout(basket);
+        if (!receipt.isCompleted()) {
+            InventoryProtocol.writeName(bodyOut, receipt.getOutOfStock().getName());
+            bodyOut.writeInt(receipt.getOutOfStock().getStock());
+            return InventoryProtocol.OUT_OF_STOCK;
+        }
+        for (int i = 0; i < lines; i++) {
+            Product product = basket.get(i).getProduct();
+            int[] sold = stockChanges.get(product);
+            if (sold == null) {
+                sold = new int[1];
+                stockChanges.put(product, sold);
+            }
+            sold[0] += basket.get(i).getQuantity();
+            bodyOut.writeLong(receipt.getPriceCents(i));
+            bodyOut.writeInt(product.getStock());
+        }
+        return InventoryProtocol.OK;
+    }
+
+    private byte save(ByteBuffer request) throws IOException {
+        String name = InventoryProtocol.readName(request);
+        long price = request.getLong();
+        int stockChange = request.getInt();
+        long sku = request.getLong();
+        int reorderLevel = request.getInt();
+        if (sku < 0 || reorderLevel < 0) {
+            return InventoryProtocol.BAD_REQUEST;
+        }
+
+        // Sales so far this round happened before the new stock level was set
+        journalStockChanges();
+        Product product = catalog.findByName(name);
+        if (product == null) {
+            if (InventoryFile.checkName(name) != null || stockChange < 0) {
+                return InventoryProtocol.BAD_REQUEST;
+            }
+            product = new Product(name, price, stockChange, sku, reorderLevel);
+            if (!catalog.add(product)) {
+                return InventoryProtocol.CONFLICT;
+            }
+        } else {
+            // Added to the stock rather than replacing it, so sales on
+            // other tills since this one last saw the product still count
+            if (stockChange < 0 && !product.removeStock(-stockChange)) {
+                InventoryProtocol.writeName(bodyOut, name);
+                bodyOut.writeInt(product.getStock());
+                return InventoryProtocol.OUT_OF_STOCK;
+            }
+            if (!catalog.setSku(catalog.indexOf(name), sku)) {
+                if (stockChange < 0) {
+                    product.addStock(-stockChange);
+                }
+                return InventoryProtocol.CONFLICT;
+            }
+            if (stockChange > 0) {
+                product.addStock(stockChange);
+            }
+            if (stockChange != 0) {
+                catalog.stockChanged(product);
+            }
+            product.setPriceCents(price);
+            catalog.setReorderLevel(catalog.indexOf(name), reorderLevel);
+        }
+        journal.productSaved(product);
+        return InventoryProtocol.OK;
+    }
+
+    private byte rename(ByteBuffer request) {
+        String oldName = InventoryProtocol.readName(request);
+        String newName = InventoryProtocol.readName(request);
+        int row = catalog.indexOf(oldName);
+        if (row == -1) {
+            return InventoryProtocol.UNKNOWN_PRODUCT;
+        }
+        if (InventoryFile.checkName(newName) != null) {
+            return InventoryProtocol.BAD_REQUEST;
+        }
+        // Stock records name the product, so they go in under the old name
+        journalStockChanges();
+        if (!catalog.rename(row, newName)) {
+            return InventoryProtocol.CONFLICT;
+        }
+        journal.productRenamed(oldName, newName);
+        return InventoryProtocol.OK;
+    }
+
+    private byte delete(ByteBuffer request) {
+        String name = InventoryProtocol.readName(request);
+        int row = catalog.indexOf(name);
+        if (row == -1) {
+            return InventoryProtocol.UNKNOWN_PRODUCT;
+        }
+        journalStockChanges();
+        catalog.remove(row);
+        journal.productDeleted(name);
+        return InventoryProtocol.OK;
+    }
+
+    private void journalStockChanges() {
+        for (Map.Entry<Product, int[]> entry : stockChanges.entrySet()) {
+            journal.stockChanged(entry.getKey().getName(), -entry.getValue()[0]);
+        }
+        stockChanges.clear();
+    }
+
+    // Makes this round's changes durable, then releases the responses
+    private void commit() {
+        journalStockChanges();
+        long start = Metrics.start();
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            // The records stay pending for the next round, but these tills
+            // cannot be told their requests are safe; they see the connection
+            // drop and reload
+            System.err.println("Error saving inventory: " + e.getMessage());
+            for (Connection connection : answered) {
+                drop(connection.channel.keyFor(selector));
+            }
+            answered.clear();
+            return;
+        }
+        Metrics.stop(Metrics.JOURNAL_COMMIT, start);
+        commitCount++;
+
+        for (Connection connection : answered) {
+            connection.answered = false;
+            connection.committed = connection.out.position();
+            SelectionKey key = connection.channel.keyFor(selector);
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+            try {
+                send(key, connection);
+            } catch (IOException e) {
+                drop(key);
+            }
+        }
+        answered.clear();
+        compactIfNeeded();
+    }
+
+    // Writes as much of the committed output as the socket takes
+    private void send(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer out = connection.out;
+        int end = out.position();
+        out.flip();
+        out.limit(connection.committed);
+        int written = connection.channel.write(out);
+        out.limit(end);
+        out.compact();
+        connection.committed -= written;
+        updateInterest(key, connection);
+    }
+
+    private static void updateInterest(SelectionKey key, Connection connection) {
+        int ops = 0;
+        if (connection.out.position() <= MAX_PENDING_OUTPUT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (connection.committed > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    private void drop(SelectionKey key) {
+        if (key == null) {
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (journal.size() > JOURNAL_COMPACT_BYTES || journal.isOutdated()) {
+            try {
+                saveSnapshot();
+            } catch (IOException e) {
+                // The journal still holds everything; try again after the next commit
+                System.err.println("Error saving inventory to file: " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes the inventory to the inventory file and starts a new journal.
+    // Called right after a commit, so nothing is pending in the journal.
+    private void saveSnapshot() throws IOException {
+        long start = Metrics.start();
+        String[] names = new String[catalog.size()];
+        long[] prices = new long[names.length];
+        int[] stocks = new int[names.length];
+        long[] skus = new long[names.length];
+        int[] reorderLevels = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = catalog.getName(i);
+            prices[i] = catalog.getPriceCents(i);
+            stocks[i] = catalog.getStock(i);
+            skus[i] = catalog.getSku(i);
+            reorderLevels[i] = catalog.getReorderLevel(i);
+        }
+        long checksum = inventoryFiles.save(binarySnapshots, names, prices, stocks, skus, reorderLevels);
+        long length = Files.size(inventoryFiles.path());
+        Metrics.saved(length);
+        Metrics.stop(Metrics.SNAPSHOT_SAVE, start);
+        journal.reset(length, checksum);
+    }
+
+    private void shutdown() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        journalStockChanges();
+        journal.commit();
+        journal.close();
+    }
+
+    //   java -cp out InventoryServer [--port 7070] [--inventory inventory.txt]
+    //
+    // The journal is kept next to the inventory file. Tills connect with
+    // java -cp out SimplePOS --server localhost:7070
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = InventoryProtocol.DEFAULT_PORT;
+        Path inventoryPath = Paths.get("inventory.txt");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--inventory":
+                    inventoryPath = Paths.get(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: InventoryServer [--port 7070] [--inventory inventory.txt]");
+                    System.exit(2);
+            }
+        }
+
+        String fileName = inventoryPath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        Path journalPath = inventoryPath.resolveSibling(
+                (dot > 0 ? fileName.substring(0, dot) : fileName) + ".journal");
+        final InventoryServer server = new InventoryServer(inventoryPath, journalPath, port);
+        final Thread serverThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Let the selector thread write what it has before exiting
+                server.close();
+                try {
+                    serverThread.join(10000);
+                } catch (InterruptedException ignored) {
+                    // Exiting anyway
+                }
+            }
+        }));
+        System.out.println("Serving " + inventoryPath + " on port " + server.port());
+        server.run();
+    }
+}
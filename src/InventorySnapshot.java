@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Binary inventory snapshot, an alternative to the CSV format of inventory.txt.
+//
+//   header:  magic "POSB", version, product count, block count, CRC32 of the above
+//   block:   product count, payload length, payload CRC32, payload
+//   product: name length (u16), UTF-8 name, price in cents (i64), stock (i32),
+//            SKU (i64, 0 for none; not in version 1 files),
+//            reorder level (i32, 0 for none; only in version 3 files)
+//
+// All numbers are big-endian. The file is memory-mapped and every block is
+// checked against its CRC when opened; products are materialized on demand
+// like InventoryFile does.
+public class InventorySnapshot implements InventorySource {
+    private static final int MAGIC = 0x504F5342; // "POSB"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 20;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int PRODUCTS_PER_BLOCK = 4096;
+
+    private final MappedByteBuffer data;
+    private final NameIndex names;
+    private final int version;
+    // Position of each product's price, right after its name
+    private int[] valueOffsets;
+
+    private InventorySnapshot(MappedByteBuffer data, int version, int productCount) {
+        this.data = data;
+        this.version = version;
+        this.names = new NameIndex(data, productCount);
+        this.valueOffsets = new int[Math.max(1, productCount)];
+    }
+
+    // True if the file starts with the snapshot magic number
+    public static boolean isSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until four bytes or end of file
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public static InventorySnapshot open(Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Inventory snapshot is too large: " + length + " bytes");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not an inventory snapshot: " + path);
+        }
+        int version = data.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported inventory snapshot version " + data.getInt(4));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(0, 16));
+        if ((int) crc.getValue() != data.getInt(16)) {
+            throw new IOException("Corrupt inventory snapshot header");
+        }
+
+        InventorySnapshot snapshot = new InventorySnapshot(data, version, data.getInt(8));
+        snapshot.readBlocks(data.getInt(8), data.getInt(12));
+        return snapshot;
+    }
+
+    // Writes a snapshot and returns the CRC32 of the whole file
+    public static long write(Path path, String[] names, long[] prices, int[] stocks, long[] skus,
+            int[] reorderLevels) throws IOException {
+        CRC32 fileCrc = new CRC32();
+        CRC32 crc = new CRC32();
+        int blockCount = (names.length + PRODUCTS_PER_BLOCK - 1) / PRODUCTS_PER_BLOCK;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(blockCount);
+            crc.update(header.array(), 0, 16);
+            header.putInt((int) crc.getValue());
+            header.flip();
+            fileCrc.update(header.array(), 0, HEADER_SIZE);
+            writeFully(channel, header);
+
+            ByteBuffer block = ByteBuffer.allocate(1 << 16);
+            for (int first = 0; first < names.length; first += PRODUCTS_PER_BLOCK) {
+                int last = Math.min(names.length, first + PRODUCTS_PER_BLOCK);
+                block.clear();
+                block.position(BLOCK_HEADER_SIZE);
+                for (int i = first; i < last; i++) {
+                    byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+                    if (name.length > 0xFFFF) {
+                        throw new IOException("Product name is too long: " + names[i].substring(0, 40) + "...");
+                    }
+                    if (block.remaining() < 2 + name.length + 24) {
+                        block = ByteBuffer.allocate(block.capacity() * 2 + name.length).put(block.flip());
+                    }
+                    block.putShort((short) name.length).put(name).putLong(prices[i]).putInt(stocks[i]).putLong(skus[i])
+                            .putInt(reorderLevels[i]);
+                }
+
+                int payloadLength = block.position() - BLOCK_HEADER_SIZE;
+                crc.reset();
+                crc.update(block.array(), BLOCK_HEADER_SIZE, payloadLength);
+                block.putInt(0, last - first).putInt(4, payloadLength).putInt(8, (int) crc.getValue());
+                block.flip();
+                fileCrc.update(block.array(), 0, block.limit());
+                writeFully(channel, block);
+            }
+        }
+        return fileCrc.getValue();
+    }
+
+    @Override
+    public int size() {
+        return names.size();
+    }
+
+    @Override
+    public Product product(int row) {
+        int offset = valueOffsets[row];
+        long sku = (version == 1) ? 0 : data.getLong(offset + 12);
+        int reorderLevel = (version < 3) ? 0 : data.getInt(offset + 20);
+        return new Product(names.name(row), data.getLong(offset), data.getInt(offset + 8), sku, reorderLevel);
+    }
+
+    @Override
+    public int find(String name) {
+        return names.find(name);
+    }
+
+    @Override
+    public long length() {
+        return data.limit();
+    }
+
+    @Override
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().clear());
+        return crc.getValue();
+    }
+
+    private void readBlocks(int productCount, int blockCount) throws IOException {
+        CRC32 crc = new CRC32();
+        int valueSize = (version == 1) ? 12 : (version == 2) ? 20 : 24;
+        int pos = HEADER_SIZE;
+        int read = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (data.limit() - pos < BLOCK_HEADER_SIZE) {
+                throw new IOException("Inventory snapshot is truncated in block " + block);
+            }
+            int count = data.getInt(pos);
+            int payloadLength = data.getInt(pos + 4);
+            int checksum = data.getInt(pos + 8);
+            pos += BLOCK_HEADER_SIZE;
+            if (count < 0 || payloadLength < 0 || payloadLength > data.limit() - pos) {
+                throw new IOException("Inventory snapshot is truncated in block " + block);
+            }
+            crc.reset();
+            crc.update(data.slice(pos, payloadLength));
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt inventory snapshot block " + block);
+            }
+
+            int end = pos + payloadLength;
+            for (int i = 0; i < count; i++) {
+                if (end - pos < 2) {
+                    throw new IOException("Corrupt inventory snapshot block " + block);
+                }
+                int nameLength = data.getShort(pos) & 0xFFFF;
+                int valueOffset = pos + 2 + nameLength;
+                if (end - valueOffset < valueSize) {
+                    throw new IOException("Corrupt inventory snapshot block " + block);
+                }
+                int row = names.add(pos + 2, nameLength);
+                if (row != -1) {
+                    if (row == valueOffsets.length) {
+                        valueOffsets = Arrays.copyOf(valueOffsets, row * 2);
+                    }
+                    valueOffsets[row] = valueOffset;
+                }
+                pos = valueOffset + valueSize;
+            }
+            read += count;
+        }
+        if (read != productCount) {
+            throw new IOException("Inventory snapshot holds " + read + " products, header says " + productCount);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // --- Conversion to and from the CSV format ---
+
+    public static void csvToSnapshot(Path csv, Path snapshot) throws IOException {
+        InventoryFile file = InventoryFile.open(csv);
+        String[] names = new String[file.size()];
+        long[] prices = new long[names.length];
+        int[] stocks = new int[names.length];
+        long[] skus = new long[names.length];
+        int[] reorderLevels = new int[names.length];
+        for (int row = 0; row < names.length; row++) {
+            Product product = file.product(row);
+            names[row] = product.getName();
+            prices[row] = product.getPriceCents();
+            stocks[row] = product.getStock();
+            skus[row] = product.getSku();
+            reorderLevels[row] = product.getReorderLevel();
+        }
+        write(snapshot, names, prices, stocks, skus, reorderLevels);
+    }
+
+    public static void snapshotToCsv(Path snapshot, Path csv) throws IOException {
+        InventorySnapshot file = open(snapshot);
+        String[] names = new String[file.size()];
+        long[] prices = new long[names.length];
+        int[] stocks = new int[names.length];
+        long[] skus = new long[names.length];
+        int[] reorderLevels = new int[names.length];
+        for (int row = 0; row < names.length; row++) {
+            Product product = file.product(row);
+            names[row] = product.getName();
+            prices[row] = product.getPriceCents();
+            stocks[row] = product.getStock();
+            skus[row] = product.getSku();
+            reorderLevels[row] = product.getReorderLevel();
+        }
+        InventoryFile.write(csv, names, prices, stocks, skus, reorderLevels);
+    }
+
+    //   java InventorySnapshot to-binary inventory.txt inventory.bin
+    //   java InventorySnapshot to-csv inventory.bin inventory.txt
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-csv"))) {
+            System.err.println("Usage: InventorySnapshot to-binary|to-csv <input> <output>");
+            System.exit(2);
+        }
+        if (args[0].equals("to-binary")) {
+            csvToSnapshot(Paths.get(args[1]), Paths.get(args[2]));
+        } else {
+            snapshotToCsv(Paths.get(args[1]), Paths.get(args[2]));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+// Products read from an inventory file, materialized one row at a time
+public interface InventorySource {
+    int size();
+
+    Product product(int row);
+
+    // Row of the product with the given name, or -1
+    int find(String name);
+
+    // Length of the file in bytes
+    long length();
+
+    // CRC32 of the whole file
+    long checksum();
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+public class InventoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"Name", "Price", "Stock", "Action"};
+
+    private final InventoryCatalog inventory;
+    // Search results being shown instead of the whole inventory, or null
+    private List<Product> matches;
+
+    public InventoryTableModel(InventoryCatalog inventory) {
+        this.inventory = inventory;
+    }
+
+    @Override
+    public int getRowCount() {
+        return (matches == null) ? inventory.size() : matches.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    // Rows of the whole inventory are read straight from the catalog's
+    // columns, so scrolling creates no Product objects
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (matches != null) {
+            Product product = matches.get(row);
+            switch (column) {
+                case 0:
+                    return product.getName();
+                case 1:
+                    return Money.format(product.getPriceCents());
+                case 2:
+                    return product.getStock();
+                default:
+                    return null;
+            }
+        }
+        switch (column) {
+            case 0:
+                return inventory.getName(row);
+            case 1:
+                return Money.format(inventory.getPriceCents(row));
+            case 2:
+                return inventory.getStock(row);
+            default:
+                return null; // Action column is drawn by the button renderer
+        }
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == 3; // Enable editing only for the Action column
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        // The Action button has no value to store
+    }
+
+    public Product productAt(int row) {
+        return (matches == null) ? inventory.get(row) : matches.get(row);
+    }
+
+    // Inventory row of the product shown at the given table row
+    public int inventoryRow(int row) {
+        return (matches == null) ? row : inventory.indexOf(matches.get(row).getName());
+    }
+
+    public boolean isFiltered() {
+        return matches != null;
+    }
+
+    public void showMatches(List<Product> products) {
+        matches = new ArrayList<>(products);
+        fireTableDataChanged();
+    }
+
+    public void showAll() {
+        if (matches != null) {
+            matches = null;
+            fireTableDataChanged();
+        }
+    }
+
+    // The row events below take inventory rows. While search results are
+    // shown, a new product only appears once the search is run again.
+    public void productInserted(int row) {
+        if (matches == null) {
+            fireTableRowsInserted(row, row);
+        }
+    }
+
+    public void productUpdated(int row) {
+        int shown = (matches == null) ? row : indexOfMatch(inventory.get(row));
+        if (shown != -1) {
+            fireTableRowsUpdated(shown, shown);
+        }
+    }
+
+    public void productDeleted(int row, Product removed) {
+        if (matches == null) {
+            fireTableRowsDeleted(row, row);
+            return;
+        }
+        int shown = indexOfMatch(removed);
+        if (shown != -1) {
+            matches.remove(shown);
+            fireTableRowsDeleted(shown, shown);
+        }
+    }
+
+    // Only for bulk changes such as loading the inventory file
+    public void inventoryReloaded() {
+        matches = null;
+        fireTableDataChanged();
+    }
+
+    private int indexOfMatch(Product product) {
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.get(i) == product) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Products with a reorder level, in a min-heap keyed on how far their stock
+// is above that level, so the ones to reorder are always at the top. A stock
+// change moves one product up or down the heap in O(log n), and listing what
+// to reorder only visits entries at or below their level, never the whole
+// inventory.
+//
+// Checkout lanes update the index at the same time, so every method locks it.
+// The listener is called with the lock held, on the thread whose change took
+// the product down to its level.
+public class LowStockIndex {
+
+    public interface Listener {
+        // The product's stock just fell to or below its reorder level
+        void reorderNeeded(Product product);
+    }
+
+    private Product[] heap = new Product[16];
+    // Stock minus reorder level of each entry when it was last updated
+    private long[] keys = new long[16];
+    private int size;
+    // Product -> its slot in the heap
+    private final Map<Product, Integer> slots = new IdentityHashMap<>();
+    private Listener listener;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Number of products with a reorder level
+    public synchronized int size() {
+        return size;
+    }
+
+    // Re-reads the product's stock and reorder level. Adds the product if it
+    // has a level, removes it if the level was cleared. Only a product that
+    // was already indexed above its level raises an alert, so loading an
+    // inventory that is already low stays quiet.
+    public synchronized void update(Product product) {
+        Integer slot = slots.get(product);
+        int level = product.getReorderLevel();
+        if (level <= 0) {
+            if (slot != null) {
+                removeAt(slot);
+            }
+            return;
+        }
+        long key = (long) product.getStock() - level;
+        if (slot == null) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            set(size, product, key);
+            size++;
+            siftUp(size - 1);
+            return;
+        }
+
+        long old = keys[slot];
+        keys[slot] = key;
+        if (key < old) {
+            siftUp(slot);
+        } else if (key > old) {
+            siftDown(slot);
+        }
+        if (old > 0 && key <= 0 && listener != null) {
+            listener.reorderNeeded(product);
+        }
+    }
+
+    public synchronized void remove(Product product) {
+        Integer slot = slots.get(product);
+        if (slot != null) {
+            removeAt(slot);
+        }
+    }
+
+    // Products at or below their reorder level, furthest below first
+    public synchronized List<Product> toReorder() {
+        List<Product> found = new ArrayList<>();
+        collect(0, found);
+        found.sort(new Comparator<Product>() {
+            @Override
+            public int compare(Product a, Product b) {
+                return Long.compare(keys[slots.get(a)], keys[slots.get(b)]);
+            }
+        });
+        return found;
+    }
+
+    // How many to order to bring the product back up to twice its reorder level
+    public static int reorderQuantity(Product product) {
+        long wanted = 2L * product.getReorderLevel() - product.getStock();
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, wanted));
+    }
+
+    // Entries below a slot are never lower than it, so a slot above its level
+    // ends the search down that branch
+    private void collect(int slot, List<Product> found) {
+        if (slot >= size || keys[slot] > 0) {
+            return;
+        }
+        found.add(heap[slot]);
+        collect(2 * slot + 1, found);
+        collect(2 * slot + 2, found);
+    }
+
+    private void removeAt(int slot) {
+        slots.remove(heap[slot]);
+        size--;
+        if (slot == size) {
+            heap[size] = null;
+            return;
+        }
+        long old = keys[slot];
+        set(slot, heap[size], keys[size]);
+        heap[size] = null;
+        if (keys[slot] < old) {
+            siftUp(slot);
+        } else {
+            siftDown(slot);
+        }
+    }
+
+    private void siftUp(int slot) {
+        Product product = heap[slot];
+        long key = keys[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            set(slot, heap[parent], keys[parent]);
+            slot = parent;
+        }
+        set(slot, product, key);
+    }
+
+    private void siftDown(int slot) {
+        Product product = heap[slot];
+        long key = keys[slot];
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            set(slot, heap[child], keys[child]);
+            slot = child;
+        }
+        set(slot, product, key);
+    }
+
+    private void set(int slot, Product product, long key) {
+        heap[slot] = product;
+        keys[slot] = key;
+        slots.put(product, slot);
+    }
+}
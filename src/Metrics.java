@@ -0,0 +1,205 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Latency histograms and counters for checkout, loading, saving and the UI.
+//
+// Off unless the JVM is started with -Dpos.metrics=true. Every recording
+// site tests the ENABLED constant first, so when it is off the JIT removes
+// the instrumentation and nothing is timed or counted. When on, the values
+// are published as JMX MBeans under "SimplePOS:*" and appended to a CSV
+// file every pos.metrics.interval seconds (60 by default).
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("pos.metrics");
+
+    public static final LatencyHistogram CHECKOUT = new LatencyHistogram("checkout");
+    public static final LatencyHistogram LOAD = new LatencyHistogram("load");
+    public static final LatencyHistogram SNAPSHOT_SAVE = new LatencyHistogram("save.snapshot");
+    public static final LatencyHistogram JOURNAL_COMMIT = new LatencyHistogram("save.journal");
+    public static final LatencyHistogram TABLE_REFRESH = new LatencyHistogram("table.refresh");
+    // Time the EDT spent on each event, i.e. how long the UI was blocked
+    public static final LatencyHistogram EDT_EVENT = new LatencyHistogram("edt.event");
+
+    private static final LatencyHistogram[] HISTOGRAMS = {
+        CHECKOUT, LOAD, SNAPSHOT_SAVE, JOURNAL_COMMIT, TABLE_REFRESH, EDT_EVENT
+    };
+
+    private static final LongAdder SALES = new LongAdder();
+    private static final LongAdder LINES = new LongAdder();
+    private static final LongAdder ITEMS = new LongAdder();
+    private static final LongAdder SAVE_BYTES = new LongAdder();
+
+    private static ScheduledExecutorService dumper;
+    private static Path dumpFile;
+
+    private Metrics() {
+    }
+
+    // Start time for stop(), or 0 when metrics are off
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void stop(LatencyHistogram histogram, long start) {
+        if (ENABLED) {
+            histogram.recordSince(start);
+        }
+    }
+
+    public static void sale(int lines, long items) {
+        if (ENABLED) {
+            SALES.increment();
+            LINES.add(lines);
+            ITEMS.add(items);
+        }
+    }
+
+    public static void saved(long bytes) {
+        if (ENABLED) {
+            SAVE_BYTES.add(bytes);
+        }
+    }
+
+    // Registers the MBeans, times EDT events and starts the periodic dump.
+    // Does nothing when metrics are off.
+    public static synchronized void install(Path csvFile) {
+        if (!ENABLED || dumper != null) {
+            return;
+        }
+        dumpFile = csvFile;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (LatencyHistogram histogram : HISTOGRAMS) {
+                server.registerMBean(histogram, new ObjectName("SimplePOS:type=Latency,name=" + histogram.getName()));
+            }
+            server.registerMBean(new Counters(), new ObjectName("SimplePOS:type=Counters"));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBeans: " + e.getMessage());
+        }
+
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+
+        long interval = Long.getLong("pos.metrics.interval", 60);
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    // Stops the periodic dump after writing the final values
+    public static synchronized void close() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+            dump();
+        }
+    }
+
+    // Appends one row per histogram and counter; values are totals since startup
+    public static synchronized void dump() {
+        if (dumpFile == null) {
+            return;
+        }
+        try {
+            boolean header = !Files.exists(dumpFile);
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(dumpFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                if (header) {
+                    out.println("time,metric,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+                }
+                long now = System.currentTimeMillis();
+                for (LatencyHistogram h : HISTOGRAMS) {
+                    out.printf("%d,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f%n", now, h.getName(), h.getCount(),
+                            h.getMeanMicros(), h.getP50Micros(), h.getP90Micros(), h.getP99Micros(),
+                            h.getP999Micros(), h.getMaxMicros());
+                }
+                out.printf("%d,sales,%d,,,,,,%n", now, SALES.sum());
+                out.printf("%d,lines,%d,,,,,,%n", now, LINES.sum());
+                out.printf("%d,items,%d,,,,,,%n", now, ITEMS.sum());
+                out.printf("%d,save.bytes,%d,,,,,,%n", now, SAVE_BYTES.sum());
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + dumpFile + ": " + e.getMessage());
+        }
+    }
+
+    private static class Counters implements CountersMXBean {
+        @Override
+        public long getSales() {
+            return SALES.sum();
+        }
+
+        @Override
+        public long getLines() {
+            return LINES.sum();
+        }
+
+        @Override
+        public long getItems() {
+            return ITEMS.sum();
+        }
+
+        @Override
+        public long getSaveBytes() {
+            return SAVE_BYTES.sum();
+        }
+    }
+
+    // A modal dialog runs a nested event loop inside the event that opened
+    // it. The span of the nested events is left out of the outer event's
+    // time, so waiting for the user to close a dialog does not count as
+    // blocking; the nested events are recorded on their own.
+    private static class TimedEventQueue extends EventQueue {
+        private int depth;
+        private long nestedStart;
+        private long nestedEnd;
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            if (depth > 0 && nestedStart == 0) {
+                nestedStart = start;
+            }
+            long outerNestedStart = nestedStart;
+            nestedStart = 0;
+            nestedEnd = 0;
+            depth++;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                long end = System.nanoTime();
+                long nested = (nestedStart == 0) ? 0 : nestedEnd - nestedStart;
+                EDT_EVENT.record(end - start - nested);
+                depth--;
+                nestedStart = outerNestedStart;
+                nestedEnd = (depth > 0) ? end : 0;
+            }
+        }
+    }
+}
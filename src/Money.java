@@ -0,0 +1,111 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Money amounts are plain longs counting cents. This class only holds the
+// parsing and formatting helpers, so amounts are never boxed.
+public final class Money {
+    private Money() {
+    }
+
+    public static long times(long cents, int quantity) {
+        return Math.multiplyExact(cents, quantity);
+    }
+
+    // Converts an old double price, rounding half-even to the cent
+    public static long fromDouble(double amount) {
+        return BigDecimal.valueOf(amount).movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    // Parses a decimal amount such as "12", "12.5" or "-0.99" into cents.
+    // Extra decimals are rounded half-even; exponents and surrounding
+    // whitespace fall back to BigDecimal.
+    public static long parse(CharSequence text, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+
+        long units = 0;
+        int unitDigits = 0;
+        for (; pos < end; pos++) {
+            int digit = text.charAt(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (units > (Long.MAX_VALUE / 100 - 1 - digit) / 10) {
+                return parseSlow(text, start, end);
+            }
+            units = units * 10 + digit;
+            unitDigits++;
+        }
+
+        long cents = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (pos < end && text.charAt(pos) == '.') {
+            pos++;
+            int firstDropped = -1;
+            boolean droppedNonZero = false;
+            for (; pos < end; pos++) {
+                int digit = text.charAt(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (fractionDigits < 2) {
+                    cents = cents * 10 + digit;
+                } else if (firstDropped < 0) {
+                    firstDropped = digit;
+                } else if (digit != 0) {
+                    droppedNonZero = true;
+                }
+                fractionDigits++;
+            }
+            if (fractionDigits == 1) {
+                cents *= 10;
+            }
+            if (firstDropped > 5 || (firstDropped == 5 && (droppedNonZero || cents % 2 == 1))) {
+                roundUp = true;
+            }
+        }
+
+        if (pos != end || unitDigits + fractionDigits == 0) {
+            return parseSlow(text, start, end);
+        }
+        long value = units * 100 + cents + (roundUp ? 1 : 0);
+        return negative ? -value : value;
+    }
+
+    private static long parseSlow(CharSequence text, int start, int end) {
+        String value = text.subSequence(start, end).toString().trim();
+        try {
+            return new BigDecimal(value).movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new NumberFormatException("Invalid amount: \"" + value + "\"");
+        }
+    }
+
+    // Two decimals, as written to inventory.txt and shown in the tables: "12.50"
+    public static String format(long cents) {
+        StringBuilder text = new StringBuilder(24);
+        appendTo(text, cents);
+        return text.toString();
+    }
+
+    public static void appendTo(StringBuilder text, long cents) {
+        if (cents < 0) {
+            text.append('-');
+        }
+        long fraction = Math.abs(cents % 100);
+        text.append(Math.abs(cents / 100)).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        text.append(fraction);
+    }
+}
@@ -0,0 +1,131 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Hash index over UTF-8 product names stored in a byte buffer, used by the
+// file readers to look products up without creating a String per row.
+public class NameIndex {
+    private final ByteBuffer data;
+    private int size;
+    private int[] nameStart;
+    private int[] nameLength;
+
+    // Open addressing table of row + 1 keyed by name hash, 0 marks an empty slot
+    private int[] table;
+
+    public NameIndex(ByteBuffer data, int expectedSize) {
+        this.data = data;
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) - 1) << 1);
+        nameStart = new int[capacity];
+        nameLength = new int[capacity];
+        table = new int[capacity * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Adds the name at [start, start + length) as the next row.
+    // Returns the row, or -1 if the name is already indexed.
+    public int add(int start, int length) {
+        if (size == nameStart.length) {
+            grow();
+        }
+        int row = size;
+        nameStart[row] = start;
+        nameLength[row] = length;
+        if (!index(row)) {
+            return -1;
+        }
+        size++;
+        return row;
+    }
+
+    // Row of the product with the given name, or -1
+    public int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int h = 0;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        int mask = table.length - 1;
+        int slot = mix(h) & mask;
+        while (table[slot] != 0) {
+            int row = table[slot] - 1;
+            if (nameEquals(row, key)) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public String name(int row) {
+        return decode(data, nameStart[row], nameLength[row]);
+    }
+
+    static String decode(ByteBuffer data, int start, int length) {
+        byte[] bytes = new byte[length];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean index(int row) {
+        int start = nameStart[row];
+        int length = nameLength[row];
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + data.get(start + i);
+        }
+        int mask = table.length - 1;
+        int slot = mix(h) & mask;
+        while (table[slot] != 0) {
+            int other = table[slot] - 1;
+            if (nameLength[other] == length && sameBytes(nameStart[other], start, length)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = row + 1;
+        return true;
+    }
+
+    private void grow() {
+        int capacity = nameStart.length * 2;
+        nameStart = Arrays.copyOf(nameStart, capacity);
+        nameLength = Arrays.copyOf(nameLength, capacity);
+
+        // Keep the table at most half full
+        table = new int[capacity * 2];
+        for (int row = 0; row < size; row++) {
+            index(row);
+        }
+    }
+
+    private boolean nameEquals(int row, byte[] key) {
+        if (nameLength[row] != key.length) {
+            return false;
+        }
+        int start = nameStart[row];
+        for (int i = 0; i < key.length; i++) {
+            if (data.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameBytes(int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data.get(a + i) != data.get(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
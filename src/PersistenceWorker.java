@@ -0,0 +1,473 @@
+import javax.swing.SwingUtilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs all inventory and sales file I/O on a single background thread so the Swing
+// event dispatch thread only records changes and hands them over.
+// Results and errors are reported back to the listener on the EDT.
+public class PersistenceWorker {
+    // Journal size at which it is folded back into inventory.txt
+    private static final long JOURNAL_COMPACT_BYTES = 1 << 20;
+    // Products listed by value in the end of day report
+    private static final int REPORT_TOP_PRODUCTS = 10;
+
+    public interface Listener {
+        // fileFound is false when there was no inventory file to load
+        void inventoryLoaded(InventoryCatalog loaded, boolean fileFound);
+
+        // The inventory file could not be read; nothing is saved until a
+        // later load() succeeds, so the file is left for the user to fix
+        void inventoryLoadFailed(String message);
+
+        // With fast start, the file load() is reading, to be shown read-only
+        // until inventoryLoaded(); changes journaled since the file was
+        // written are not in it yet
+        void inventoryPreview(InventorySource file);
+
+        // The journal has grown large, the listener should call saveSnapshot()
+        void snapshotNeeded();
+
+        void persistenceFailed(String message);
+
+        // Rows read by importFile(), to be merged into the inventory
+        void importRead(Path path, InventoryImport.Rows rows);
+
+        // Figures computed by endOfDayReport()
+        void reportReady(EndOfDayReport report);
+
+        // Rules read by readPromotions(), to be compiled against the inventory
+        void promotionsRead(List<Promotions.Rule> rules);
+
+        // Records found by auditHistory(), oldest first
+        void historyRead(String product, List<AuditLog.Record> records);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    // Copy of the inventory taken on the EDT, to be written in the background
+    private static class Columns {
+        final String[] names;
+        final long[] prices;
+        final int[] stocks;
+        final long[] skus;
+        final int[] reorderLevels;
+
+        Columns(InventoryCatalog inventory) {
+            int size = inventory.size();
+            names = new String[size];
+            prices = new long[size];
+            stocks = new int[size];
+            skus = new long[size];
+            reorderLevels = new int[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = inventory.getName(i);
+                prices[i] = inventory.getPriceCents(i);
+                stocks[i] = inventory.getStock(i);
+                skus[i] = inventory.getSku(i);
+                reorderLevels[i] = inventory.getReorderLevel(i);
+            }
+        }
+    }
+
+    // inventory.txt and its backups
+    private final InventoryGenerations inventoryFiles;
+    private final InventoryJournal journal;
+    private final SalesLedger ledger;
+    private final AuditLog audit;
+    private final Listener listener;
+    private final ThreadPoolExecutor executor;
+    private final AtomicBoolean commitQueued = new AtomicBoolean();
+
+    // Only touched on the worker thread
+    private boolean snapshotRequested;
+    // The last snapshot could not be written, so its changes wait in memory
+    private boolean snapshotFailed;
+    // Set by close() unless every change was written before stopping
+    private volatile boolean unwritten;
+    // Snapshots are written in the format the inventory was loaded from
+    private boolean binarySnapshots;
+    // Set before load(), see fastStart()
+    private boolean fastStart;
+    // Set once load() has read the inventory or found there is none; until
+    // then a snapshot would overwrite inventory.txt with whatever is on screen
+    private volatile boolean inventoryLoaded;
+
+    public PersistenceWorker(Path inventoryPath, Path journalPath, Path salesDirectory, Path auditDirectory,
+            Listener listener) {
+        this.inventoryFiles = new InventoryGenerations(inventoryPath, InventoryGenerations.DEFAULT_BACKUPS);
+        this.journal = new InventoryJournal(journalPath);
+        this.ledger = new SalesLedger(salesDirectory);
+        this.audit = new AuditLog(auditDirectory);
+        this.listener = listener;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                // Unbounded, so no task ever runs on the caller: at most one
+                // commit is queued at a time (see commit()) and everything else
+                // is started by the user, so the queue stays short even while
+                // the disk stalls
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "inventory-persistence");
+                    }
+                });
+    }
+
+    // Changes are appended here on the EDT and written by commit()
+    public InventoryJournal journal() {
+        return journal;
+    }
+
+    // Completed sales are recorded here on the EDT and written by commit()
+    public SalesLedger ledger() {
+        return ledger;
+    }
+
+    // Inventory changes are recorded here on the EDT and written by commit()
+    public AuditLog audit() {
+        return audit;
+    }
+
+    // Makes load() show the file as soon as it is open and keep a binary
+    // copy of a CSV inventory.txt to open it faster next time
+    public void fastStart() {
+        fastStart = true;
+        inventoryFiles.enableCache();
+    }
+
+    public void load() {
+        submit("Error loading inventory from file: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                long start = Metrics.start();
+                final InventoryCatalog loaded = new InventoryCatalog();
+                InventorySource file = null;
+                try {
+                    // Products are only created when their row is shown or looked up
+                    file = inventoryFiles.open();
+                    if (file == null) {
+                        inventoryLoaded = true;
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.inventoryLoaded(loaded, false);
+                            }
+                        });
+                        return;
+                    }
+                    binarySnapshots = inventoryFiles.isBinary();
+                    if (inventoryFiles.skipped() != null) {
+                        final String message = "Inventory file was damaged, loaded "
+                                + inventoryFiles.openedPath().getFileName() + " instead (" + inventoryFiles.skipped() + ")";
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.persistenceFailed(message);
+                            }
+                        });
+                    }
+                    if (fastStart) {
+                        final InventorySource preview = file;
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.inventoryPreview(preview);
+                            }
+                        });
+                    }
+                    loaded.load(file);
+
+                    // Apply the changes made since the file was last written
+                    boolean fromBackup = !inventoryFiles.path().equals(inventoryFiles.openedPath());
+                    journal.replay(loaded, file.length(), file.checksum(), fromBackup);
+                    if (journal.setAside() != null) {
+                        final String message = "Inventory journal does not match "
+                                + inventoryFiles.openedPath().getFileName()
+                                + ", its changes were not applied and are kept in " + journal.setAside().getFileName();
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.persistenceFailed(message);
+                            }
+                        });
+                    }
+                    // Index names and barcodes here rather than on the first keystroke or scan
+                    loaded.buildIndexes();
+                } catch (IOException | NumberFormatException e) {
+                    inventoryLoaded = false;
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.inventoryLoadFailed("Error loading inventory from file: " + e.getMessage());
+                        }
+                    });
+                    return;
+                }
+                Metrics.stop(Metrics.LOAD, start);
+                inventoryLoaded = true;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.inventoryLoaded(loaded, true);
+                    }
+                });
+                if (fastStart && file != null) {
+                    // After the inventory is shown, so it does not hold up startup
+                    inventoryFiles.updateCache(file);
+                }
+                requestSnapshotIfNeeded();
+            }
+        });
+    }
+
+    // Writes everything appended to the journal and the sales ledger so far.
+    // Calls made while a commit is still queued are folded into that one.
+    public void commit() {
+        if (!commitQueued.compareAndSet(false, true)) {
+            return;
+        }
+        submit("Error saving inventory to file: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                commitQueued.set(false);
+                long start = Metrics.start();
+                long before = journal.size();
+                boolean written = journal.commit();
+                Metrics.saved(journal.size() - before);
+                Metrics.stop(Metrics.JOURNAL_COMMIT, start);
+                requestSnapshotIfNeeded();
+                flushSales();
+                flushAudit();
+                if (!written && snapshotFailed) {
+                    // Reported once per failed snapshot
+                    snapshotFailed = false;
+                    throw new IOException("changes are kept in memory until inventory.txt can be saved");
+                }
+            }
+        });
+    }
+
+    // Copies the inventory on the calling thread (the EDT) and writes it to
+    // inventory.txt in the background, starting a new journal
+    public void saveSnapshot(InventoryCatalog inventory) {
+        if (!inventoryLoaded) {
+            listener.persistenceFailed("Inventory not saved: inventory.txt has not been loaded");
+            return;
+        }
+        final Columns columns = new Columns(inventory);
+        journal.beginSnapshot();
+
+        submit("Error saving inventory to file: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                long start = Metrics.start();
+                try {
+                    long checksum = inventoryFiles.save(binarySnapshots, columns.names, columns.prices,
+                            columns.stocks, columns.skus, columns.reorderLevels);
+
+                    // Everything journaled before the copy is now part of the snapshot
+                    long length = Files.size(inventoryFiles.path());
+                    Metrics.saved(length);
+                    Metrics.stop(Metrics.SNAPSHOT_SAVE, start);
+                    journal.reset(length, checksum);
+                    snapshotFailed = false;
+                } catch (IOException e) {
+                    // The copied changes go back to the journal, or to the next snapshot
+                    journal.snapshotFailed();
+                    snapshotFailed = true;
+                    throw e;
+                } finally {
+                    snapshotRequested = false;
+                }
+                journal.commit();
+                flushAudit();
+            }
+        });
+    }
+
+    // Reads the promotion rules in the background; no file means no promotions
+    public void readPromotions(final Path path) {
+        submit("Error reading promotions: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                final List<Promotions.Rule> rules = Promotions.read(path);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.promotionsRead(rules);
+                    }
+                });
+            }
+        });
+    }
+
+    // Parses a supplier feed or inventory file in the background, see InventoryImport
+    public void importFile(final Path path) {
+        submit("Error importing " + path.getFileName() + ": ", new Task() {
+            @Override
+            public void run() throws IOException {
+                final InventoryImport.Rows rows;
+                try {
+                    rows = InventoryImport.read(path);
+                } catch (NumberFormatException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.importRead(path, rows);
+                    }
+                });
+            }
+        });
+    }
+
+    // Copies the inventory on the calling thread (the EDT) and writes it as a
+    // CSV file with a header line, which importFile() reads back
+    public void exportFile(final Path path, InventoryCatalog inventory) {
+        final Columns columns = new Columns(inventory);
+        submit("Error exporting " + path.getFileName() + ": ", new Task() {
+            @Override
+            public void run() throws IOException {
+                InventoryImport.export(path, columns.names, columns.prices, columns.stocks, columns.skus,
+                        columns.reorderLevels);
+            }
+        });
+    }
+
+    // Copies the inventory on the calling thread (the EDT), then writes out
+    // the sales recorded so far and reports on both in the background
+    public void endOfDayReport(InventoryCatalog inventory) {
+        final Columns columns = new Columns(inventory);
+        final LocalDate day = LocalDate.now();
+        submit("Error reading sales: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                ledger.flush();
+                final EndOfDayReport report = EndOfDayReport.compute(day, columns.names, columns.prices,
+                        columns.stocks, columns.reorderLevels, ledger.lines(day), REPORT_TOP_PRODUCTS);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.reportReady(report);
+                    }
+                });
+            }
+        });
+    }
+
+    // Flushes pending changes and stops the worker, waiting at most the given time
+    public boolean close(long timeoutMillis) {
+        commit();
+        submit("Error saving inventory to file: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                // Until everything below has gone through
+                unwritten = true;
+                flushSales();
+                flushAudit();
+                journal.commit();
+                journal.close();
+                ledger.close();
+                audit.close();
+                unwritten = journal.hasUnwritten();
+            }
+        });
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS) && !unwritten;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Writes out the changes recorded so far, then reads back the last limit
+    // changes to the product, or to any product when it is null
+    public void auditHistory(final String product, final int limit) {
+        submit("Error reading the audit log: ", new Task() {
+            @Override
+            public void run() throws IOException {
+                audit.flush();
+                final List<AuditLog.Record> records = audit.query(product, Long.MIN_VALUE, Long.MAX_VALUE, limit);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.historyRead(product, records);
+                    }
+                });
+            }
+        });
+    }
+
+    private void flushAudit() {
+        try {
+            audit.flush();
+        } catch (final IOException e) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.persistenceFailed("Error saving the audit log: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    private void flushSales() {
+        try {
+            ledger.flush();
+        } catch (final IOException e) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.persistenceFailed("Error saving sales: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    private void requestSnapshotIfNeeded() {
+        if (inventoryLoaded && !snapshotRequested && (journal.size() > JOURNAL_COMPACT_BYTES || journal.isOutdated())) {
+            snapshotRequested = true;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.snapshotNeeded();
+                }
+            });
+        }
+    }
+
+    private void submit(final String errorPrefix, final Task task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (final IOException e) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.persistenceFailed(errorPrefix + e.getMessage());
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private static void post(Runnable runnable) {
+        SwingUtilities.invokeLater(runnable);
+    }
+}
@@ -1,36 +1,160 @@
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+// A product on its own, or a view of one row of a ProductStore. Products are
+// created on their own and become views when added to the catalog, which
+// moves their values into the store's columns; removing them copies the
+// values back.
 public class Product {
+    private static final AtomicIntegerFieldUpdater<Product> STOCK =
+            AtomicIntegerFieldUpdater.newUpdater(Product.class, "stock");
+
+    // Set while the product is in a store, which then holds everything but the name
+    private ProductStore store;
+    private int id;
+    // Kept here as well while in a store, so reading it creates no String
     private String name;
-    private double price;
-    private int stock;
+    private long priceCents;
+    // Barcode number, 0 if the product has none
+    private long sku;
+    // Stock at or below which the product should be reordered, 0 for no alert
+    private int reorderLevel;
+    // Updated with CAS so several checkout lanes can sell the same product
+    private volatile int stock;
 
-    public Product(String name, double price, int stock) {
+    public Product(String name, long priceCents, int stock) {
         this.name = name;
-        this.price = price;
+        this.priceCents = priceCents;
         this.stock = stock;
     }
 
+    public Product(String name, long priceCents, int stock, long sku) {
+        this(name, priceCents, stock);
+        this.sku = sku;
+    }
+
+    public Product(String name, long priceCents, int stock, long sku, int reorderLevel) {
+        this(name, priceCents, stock, sku);
+        this.reorderLevel = reorderLevel;
+    }
+
+    // A view, see ProductStore.view()
+    Product(ProductStore store, int id, String name) {
+        this.store = store;
+        this.id = id;
+        this.name = name;
+    }
+
     public String getName() {
         return name;
     }
 
-    public double getPrice() {
-        return price;
+    public long getPriceCents() {
+        return (store != null) ? store.priceCents(id) : priceCents;
     }
 
     public int getStock() {
-        return stock;
+        return (store != null) ? store.stock(id) : stock;
+    }
+
+    public long getSku() {
+        return (store != null) ? store.sku(id) : sku;
+    }
+
+    public int getReorderLevel() {
+        return (store != null) ? store.reorderLevel(id) : reorderLevel;
     }
 
     public void setName(String name) {
-        this.name = name;
+        if (store == null) {
+            this.name = name;
+        } else if (!store.rename(id, name)) {
+            throw new IllegalArgumentException("Product name already in use: " + name);
+        }
     }
 
-    public void setPrice(double price) {
-        this.price = price;
+    public void setPriceCents(long priceCents) {
+        if (store != null) {
+            store.setPriceCents(id, priceCents);
+        } else {
+            this.priceCents = priceCents;
+        }
     }
 
     public void setStock(int stock) {
-        this.stock = stock;
+        if (store != null) {
+            store.setStock(id, stock);
+        } else {
+            this.stock = stock;
+        }
+    }
+
+    public void setSku(long sku) {
+        if (store != null) {
+            store.setSku(id, sku);
+        } else {
+            this.sku = sku;
+        }
+    }
+
+    public void setReorderLevel(int reorderLevel) {
+        if (store != null) {
+            store.setReorderLevel(id, reorderLevel);
+        } else {
+            this.reorderLevel = reorderLevel;
+        }
+    }
+
+    // Takes the quantity out of stock unless that would make it negative
+    public boolean removeStock(int quantity) {
+        if (store != null) {
+            return store.removeStock(id, quantity);
+        }
+        int current;
+        do {
+            current = stock;
+            if (current < quantity) {
+                return false;
+            }
+        } while (!STOCK.compareAndSet(this, current, current - quantity));
+        return true;
+    }
+
+    public void addStock(int quantity) {
+        if (store != null) {
+            store.addStock(id, quantity);
+        } else {
+            STOCK.addAndGet(this, quantity);
+        }
+    }
+
+    // A product on its own with this one's current values
+    public Product copy() {
+        return new Product(getName(), getPriceCents(), getStock(), getSku(), getReorderLevel());
+    }
+
+    // Id of the store row this product is a view of, -1 while on its own
+    int storeId() {
+        return (store != null) ? id : -1;
+    }
+
+    // Called by the store the product is added to
+    void attach(ProductStore store, int id) {
+        this.store = store;
+        this.id = id;
+    }
+
+    // Called by the store the product is removed from
+    void detach() {
+        priceCents = store.priceCents(id);
+        stock = store.stock(id);
+        sku = store.sku(id);
+        reorderLevel = store.reorderLevel(id);
+        store = null;
+    }
+
+    // Called by the store when the product is renamed
+    void nameChanged(String name) {
+        this.name = name;
     }
 
     @Override
@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Type-ahead search over product names. Every word of every name is kept in
+// one array sorted by word, so the products with a word starting with the
+// typed text form a contiguous range found by binary search. Matching is
+// case-insensitive and a query of several words must match each of them,
+// in any order ("cola 2" finds "Coca-Cola 2L").
+//
+// Products are indexed by ProductStore id, so only the matches shown get a
+// Product object.
+public class ProductSearchIndex {
+    private final ProductStore store;
+    private String[] words = new String[16];
+    private int[] ids = new int[16];
+    private int size;
+
+    public ProductSearchIndex(ProductStore store) {
+        this.store = store;
+    }
+
+    // Bulk build, sorting once instead of inserting one word at a time
+    public void addAll(int[] all, int count) {
+        for (int i = 0; i < count; i++) {
+            for (String word : tokenize(store.name(all[i]))) {
+                append(word, all[i]);
+            }
+        }
+        sort();
+    }
+
+    public void add(int id) {
+        for (String word : tokenize(store.name(id))) {
+            int at = lowerBound(word);
+            ensureCapacity(size + 1);
+            System.arraycopy(words, at, words, at + 1, size - at);
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            words[at] = word;
+            ids[at] = id;
+            size++;
+        }
+    }
+
+    // Removes the product as indexed under the given name
+    public void remove(int id, String name) {
+        for (String word : tokenize(name)) {
+            for (int i = lowerBound(word); i < size && words[i].equals(word); i++) {
+                if (ids[i] == id) {
+                    System.arraycopy(words, i + 1, words, i, size - i - 1);
+                    System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                    size--;
+                    words[size] = null;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Called after the store has renamed the product
+    public void rename(int id, String oldName) {
+        remove(id, oldName);
+        add(id);
+    }
+
+    // At most limit products matching every word of the query
+    public List<Product> search(String query, int limit) {
+        List<String> queryWords = tokenize(query);
+        if (queryWords.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Walk the narrowest range and check the other words on each product
+        int from = 0;
+        int to = 0;
+        for (int i = 0; i < queryWords.size(); i++) {
+            String word = queryWords.get(i);
+            int lo = lowerBound(word);
+            int hi = lowerBound(word + Character.MAX_VALUE);
+            if (i == 0 || hi - lo < to - from) {
+                from = lo;
+                to = hi;
+            }
+        }
+
+        List<Product> matches = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            int id = ids[i];
+            if (seen.contains(id)) {
+                continue;
+            }
+            if (queryWords.size() == 1 || matchesAll(store.name(id), queryWords)) {
+                seen.add(id);
+                matches.add(store.view(id));
+                if (matches.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int wordCount() {
+        return size;
+    }
+
+    private static boolean matchesAll(String name, List<String> queryWords) {
+        List<String> nameWords = tokenize(name);
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String nameWord : nameWords) {
+                if (nameWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lower-cased words made of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    // First position whose word is not less than the given one
+    private int lowerBound(String word) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (words[mid].compareTo(word) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void append(String word, int id) {
+        ensureCapacity(size + 1);
+        words[size] = word;
+        ids[size] = id;
+        size++;
+    }
+
+    private void sort() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final String[] unsortedWords = words;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return unsortedWords[a].compareTo(unsortedWords[b]);
+            }
+        });
+
+        String[] sortedWords = new String[words.length];
+        int[] sortedIds = new int[ids.length];
+        for (int i = 0; i < size; i++) {
+            // Equal words share one String, leaving the copies to the collector
+            String word = words[order[i]];
+            sortedWords[i] = (i > 0 && word.equals(sortedWords[i - 1])) ? sortedWords[i - 1] : word;
+            sortedIds[i] = ids[order[i]];
+        }
+        words = sortedWords;
+        ids = sortedIds;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > words.length) {
+            int capacity = Math.max(needed, words.length * 2);
+            words = Arrays.copyOf(words, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Product data as columns rather than one object per product: names packed
+// as UTF-8 into one byte array, prices, stocks, barcodes and reorder levels
+// in primitive arrays, and a hash index from name to id over the packed
+// bytes.
+//
+// Each product has an id that stays the same until it is removed. Columns
+// are split into pages that are never reallocated, so checkout lanes can
+// update stock with CAS while products are being added. A Product object is
+// only created when view() asks for one, and is then the one object for that
+// id until the product is removed.
+public class ProductStore {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private byte[] nameBytes = new byte[PAGE_SIZE];
+    private int nameEnd;
+    // Bytes of names since renamed or removed, reclaimed by compactNames()
+    private int nameGarbage;
+
+    private int[][] nameStarts = new int[0][];
+    // -1 for an id that is not in use
+    private int[][] nameLengths = new int[0][];
+    private int[][] nameHashes = new int[0][];
+    private long[][] prices = new long[0][];
+    private int[][] stocks = new int[0][];
+    private long[][] skus = new long[0][];
+    private int[][] reorderLevels = new int[0][];
+    private Product[][] views = new Product[0][];
+
+    // Ids below this have been handed out
+    private int idLimit;
+    private int size;
+    // Ids of removed products, reused before new ones
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    // Open addressing table of id + 1 keyed by name hash, 0 marks an empty slot
+    private int[] table = new int[32];
+
+    public int size() {
+        return size;
+    }
+
+    // Every id in use is below this
+    public int idLimit() {
+        return idLimit;
+    }
+
+    // Returns the new product's id, or -1 if the name is already taken
+    public int add(String name, long priceCents, int stock, long sku, int reorderLevel) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        if (find(bytes, hash) != -1) {
+            return -1;
+        }
+        int id = allocate();
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        nameStarts[page][slot] = appendName(bytes);
+        nameLengths[page][slot] = bytes.length;
+        nameHashes[page][slot] = hash;
+        prices[page][slot] = priceCents;
+        stocks[page][slot] = stock;
+        skus[page][slot] = sku;
+        reorderLevels[page][slot] = reorderLevel;
+        insert(id, hash);
+        size++;
+        return id;
+    }
+
+    // Moves a product's values into the store and makes the object the view
+    // of its new id. Returns the id, or -1 if the name is already taken.
+    public int add(Product product) {
+        int id = add(product.getName(), product.getPriceCents(), product.getStock(),
+                product.getSku(), product.getReorderLevel());
+        if (id != -1) {
+            product.attach(this, id);
+            views[id >>> PAGE_BITS][id & PAGE_MASK] = product;
+        }
+        return id;
+    }
+
+    // A view that was handed out keeps the product's last values
+    public void remove(int id) {
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        Product view = views[page][slot];
+        if (view != null) {
+            view.detach();
+            views[page][slot] = null;
+        }
+        unlink(id);
+        nameGarbage += nameLengths[page][slot];
+        nameLengths[page][slot] = -1;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        size--;
+    }
+
+    // The product with the given name, or -1
+    public int find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, hash(bytes));
+    }
+
+    // The Product object for the id, created on first use
+    public Product view(int id) {
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        Product view = views[page][slot];
+        if (view == null) {
+            view = new Product(this, id, name(id));
+            views[page][slot] = view;
+        }
+        return view;
+    }
+
+    // The view of the id if one was created, otherwise null
+    public Product existingView(int id) {
+        return views[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    public String name(int id) {
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        return new String(nameBytes, nameStarts[page][slot], nameLengths[page][slot], StandardCharsets.UTF_8);
+    }
+
+    // Returns false if another product already has the new name
+    public boolean rename(int id, String newName) {
+        byte[] bytes = newName.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        int owner = find(bytes, hash);
+        if (owner == id) {
+            return true;
+        }
+        if (owner != -1) {
+            return false;
+        }
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        unlink(id);
+        nameGarbage += nameLengths[page][slot];
+        nameStarts[page][slot] = appendName(bytes);
+        nameLengths[page][slot] = bytes.length;
+        nameHashes[page][slot] = hash;
+        insert(id, hash);
+        Product view = views[page][slot];
+        if (view != null) {
+            view.nameChanged(newName);
+        }
+        return true;
+    }
+
+    public long priceCents(int id) {
+        return prices[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    public void setPriceCents(int id, long priceCents) {
+        prices[id >>> PAGE_BITS][id & PAGE_MASK] = priceCents;
+    }
+
+    public int stock(int id) {
+        return (int) INTS.getVolatile(stocks[id >>> PAGE_BITS], id & PAGE_MASK);
+    }
+
+    public void setStock(int id, int stock) {
+        INTS.setVolatile(stocks[id >>> PAGE_BITS], id & PAGE_MASK, stock);
+    }
+
+    // Takes the quantity out of stock unless that would make it negative
+    public boolean removeStock(int id, int quantity) {
+        int[] page = stocks[id >>> PAGE_BITS];
+        int slot = id & PAGE_MASK;
+        int current;
+        do {
+            current = (int) INTS.getVolatile(page, slot);
+            if (current < quantity) {
+                return false;
+            }
+        } while (!INTS.compareAndSet(page, slot, current, current - quantity));
+        return true;
+    }
+
+    public void addStock(int id, int quantity) {
+        INTS.getAndAdd(stocks[id >>> PAGE_BITS], id & PAGE_MASK, quantity);
+    }
+
+    public long sku(int id) {
+        return skus[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    // The caller keeps barcodes unique, see InventoryCatalog.setSku()
+    public void setSku(int id, long sku) {
+        skus[id >>> PAGE_BITS][id & PAGE_MASK] = sku;
+    }
+
+    public int reorderLevel(int id) {
+        return reorderLevels[id >>> PAGE_BITS][id & PAGE_MASK];
+    }
+
+    public void setReorderLevel(int id, int reorderLevel) {
+        reorderLevels[id >>> PAGE_BITS][id & PAGE_MASK] = reorderLevel;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if ((idLimit & PAGE_MASK) == 0 && (idLimit >>> PAGE_BITS) == prices.length) {
+            addPage();
+        }
+        return idLimit++;
+    }
+
+    private void addPage() {
+        int pages = prices.length + 1;
+        nameStarts = Arrays.copyOf(nameStarts, pages);
+        nameLengths = Arrays.copyOf(nameLengths, pages);
+        nameHashes = Arrays.copyOf(nameHashes, pages);
+        prices = Arrays.copyOf(prices, pages);
+        stocks = Arrays.copyOf(stocks, pages);
+        skus = Arrays.copyOf(skus, pages);
+        reorderLevels = Arrays.copyOf(reorderLevels, pages);
+        views = Arrays.copyOf(views, pages);
+        int page = pages - 1;
+        nameStarts[page] = new int[PAGE_SIZE];
+        nameLengths[page] = new int[PAGE_SIZE];
+        nameHashes[page] = new int[PAGE_SIZE];
+        prices[page] = new long[PAGE_SIZE];
+        stocks[page] = new int[PAGE_SIZE];
+        skus[page] = new long[PAGE_SIZE];
+        reorderLevels[page] = new int[PAGE_SIZE];
+        views[page] = new Product[PAGE_SIZE];
+    }
+
+    private int appendName(byte[] bytes) {
+        if (bytes.length > nameBytes.length - nameEnd) {
+            if (nameGarbage > nameEnd / 2) {
+                compactNames();
+            }
+            if (bytes.length > nameBytes.length - nameEnd) {
+                long needed = Math.max((long) nameBytes.length * 2, (long) nameEnd + bytes.length);
+                if (needed > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Product names do not fit in 2 GB");
+                }
+                nameBytes = Arrays.copyOf(nameBytes, (int) needed);
+            }
+        }
+        int start = nameEnd;
+        System.arraycopy(bytes, 0, nameBytes, start, bytes.length);
+        nameEnd += bytes.length;
+        return start;
+    }
+
+    // Copies the names still in use to the front of a new array
+    private void compactNames() {
+        byte[] compacted = new byte[Math.max(PAGE_SIZE, (nameEnd - nameGarbage) * 2)];
+        int end = 0;
+        for (int id = 0; id < idLimit; id++) {
+            int page = id >>> PAGE_BITS;
+            int slot = id & PAGE_MASK;
+            int length = nameLengths[page][slot];
+            if (length >= 0) {
+                System.arraycopy(nameBytes, nameStarts[page][slot], compacted, end, length);
+                nameStarts[page][slot] = end;
+                end += length;
+            }
+        }
+        nameBytes = compacted;
+        nameEnd = end;
+        nameGarbage = 0;
+    }
+
+    private int find(byte[] bytes, int hash) {
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (nameHashes[id >>> PAGE_BITS][id & PAGE_MASK] == hash && nameEquals(id, bytes)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int id, int hash) {
+        // Keep the table at most half full
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    private void unlink(int id) {
+        int mask = table.length - 1;
+        int slot = mix(nameHashes[id >>> PAGE_BITS][id & PAGE_MASK]) & mask;
+        while (table[slot] != id + 1) {
+            slot = (slot + 1) & mask;
+        }
+
+        // Shift later entries of the probe chain back so lookups still find them
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int other = table[next] - 1;
+            int home = mix(nameHashes[other >>> PAGE_BITS][other & PAGE_MASK]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : old) {
+            if (entry != 0) {
+                int id = entry - 1;
+                int slot = mix(nameHashes[id >>> PAGE_BITS][id & PAGE_MASK]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+    }
+
+    private boolean nameEquals(int id, byte[] bytes) {
+        int page = id >>> PAGE_BITS;
+        int slot = id & PAGE_MASK;
+        int start = nameStarts[page][slot];
+        return nameLengths[page][slot] == bytes.length
+                && Arrays.equals(nameBytes, start, start + bytes.length, bytes, 0, bytes.length);
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 0;
+        for (byte b : bytes) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
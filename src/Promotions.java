@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Multi-buy, percentage and bundle promotions. Rules are read from a text
+// file with one rule per line; blank lines and lines starting with # are
+// skipped:
+//
+//   multibuy,<description>,<quantity>,<price>,<product>,...
+//       every <quantity> units of each product for <price>, e.g. 3 for 5.00
+//   percent,<description>,<percent>,<product>,...
+//       whole percent off each unit
+//   bundle,<description>,<price>,<product>,...
+//       one of each product together for <price>
+//
+// Products are given by name or barcode. compile() looks them up in the
+// catalog once and builds a table indexed by store id, so pricing a basket
+// is one pass over its lines with one table lookup each, then one step per
+// product or rule the basket hit. Nothing is allocated per line, and a
+// basket without discounts allocates nothing at all.
+//
+// A product belongs to the first rule that names it. Compiled tables do not
+// see products added later; compile again after adding products.
+public class Promotions {
+    private static final int MULTIBUY = 0;
+    private static final int PERCENT = 1;
+    private static final int BUNDLE = 2;
+    private static final String[] TYPES = {"multibuy", "percent", "bundle"};
+
+    public static class Rule {
+        private final int type;
+        private final String description;
+        // Units per group, multibuy only
+        private final int quantity;
+        // Group price for multibuy, bundle price for bundle
+        private final long priceCents;
+        private final int percent;
+        private final String[] products;
+
+        private Rule(int type, String description, int quantity, long priceCents, int percent, String[] products) {
+            this.type = type;
+            this.description = description;
+            this.quantity = quantity;
+            this.priceCents = priceCents;
+            this.percent = percent;
+            this.products = products;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // Discount lines for one basket, in the order the basket reached their rules
+    public static class Discounts {
+        private final String[] names;
+        private final long[] cents;
+        private final long totalCents;
+
+        private Discounts(String[] names, long[] cents, long totalCents) {
+            this.names = names;
+            this.cents = cents;
+            this.totalCents = totalCents;
+        }
+
+        public int getCount() {
+            return names.length;
+        }
+
+        public String getName(int i) {
+            return names[i];
+        }
+
+        // Amount taken off, positive
+        public long getCents(int i) {
+            return cents[i];
+        }
+
+        public long getTotalCents() {
+            return totalCents;
+        }
+    }
+
+    public static final Discounts NO_DISCOUNTS = new Discounts(new String[0], new long[0], 0);
+    public static final Promotions NONE = compile(Collections.<Rule>emptyList(), null);
+
+    // Products taking part, by store id: index into the member arrays or -1
+    private final int[] memberOfId;
+    // The product each member was compiled for, so a store id that was
+    // freed and handed to another product does not match
+    private final Product[] memberProducts;
+    private final int[] memberRules;
+
+    private final int[] ruleTypes;
+    private final String[] ruleNames;
+    private final int[] ruleQuantities;
+    private final long[] rulePrices;
+    private final int[] rulePercents;
+    // Members of a rule are contiguous
+    private final int[] ruleFirstMembers;
+    private final int[] ruleMemberCounts;
+
+    private final List<String> warnings;
+
+    // Per lane working state, sized for the rules and cleared after each basket
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(memberProducts.length, ruleTypes.length);
+        }
+    };
+
+    private static class Scratch {
+        // Units and unit price of each member in the basket, 0 units if absent
+        final int[] quantities;
+        final long[] prices;
+        final int[] members;
+        int memberCount;
+        final boolean[] ruleSeen;
+        final long[] discounts;
+        final int[] rules;
+        int ruleCount;
+
+        Scratch(int memberCount, int ruleCount) {
+            quantities = new int[memberCount];
+            prices = new long[memberCount];
+            members = new int[memberCount];
+            ruleSeen = new boolean[ruleCount];
+            discounts = new long[ruleCount];
+            rules = new int[ruleCount];
+        }
+    }
+
+    private Promotions(int[] memberOfId, Product[] memberProducts, int[] memberRules, List<Rule> rules,
+            int[] ruleFirstMembers, int[] ruleMemberCounts, List<String> warnings) {
+        this.memberOfId = memberOfId;
+        this.memberProducts = memberProducts;
+        this.memberRules = memberRules;
+        this.ruleFirstMembers = ruleFirstMembers;
+        this.ruleMemberCounts = ruleMemberCounts;
+        this.warnings = warnings;
+        int count = rules.size();
+        ruleTypes = new int[count];
+        ruleNames = new String[count];
+        ruleQuantities = new int[count];
+        rulePrices = new long[count];
+        rulePercents = new int[count];
+        for (int r = 0; r < count; r++) {
+            Rule rule = rules.get(r);
+            ruleTypes[r] = rule.type;
+            ruleNames[r] = rule.description;
+            ruleQuantities[r] = rule.quantity;
+            rulePrices[r] = rule.priceCents;
+            rulePercents[r] = rule.percent;
+        }
+    }
+
+    // Reads the rules in the file, or none if it does not exist
+    public static List<Rule> read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+        List<Rule> rules = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path.getFileName() + " line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    // Throws IllegalArgumentException, including NumberFormatException, for a bad rule
+    private static Rule parse(String line) {
+        String[] fields = line.split(",");
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        int type = Arrays.asList(TYPES).indexOf(fields[0]);
+        if (type == -1) {
+            throw new IllegalArgumentException("Unknown promotion type: " + fields[0]);
+        }
+        // Type, description and the type's parameters come before the products
+        int first = (type == MULTIBUY) ? 4 : 3;
+        int minimum = (type == BUNDLE) ? 2 : 1;
+        if (fields.length < first + minimum) {
+            throw new IllegalArgumentException(fields[0] + " needs a description, "
+                    + ((type == MULTIBUY) ? "quantity, price" : (type == PERCENT) ? "percent" : "price")
+                    + " and at least " + minimum + (minimum == 1 ? " product" : " products"));
+        }
+        String description = fields[1];
+        int quantity = 0;
+        long price = 0;
+        int percent = 0;
+        if (type == MULTIBUY) {
+            quantity = Integer.parseInt(fields[2]);
+            price = Money.parse(fields[3]);
+            if (quantity < 2) {
+                throw new IllegalArgumentException("Multi-buy quantity must be at least 2: " + quantity);
+            }
+        } else if (type == PERCENT) {
+            percent = Integer.parseInt(fields[2]);
+            if (percent < 1 || percent > 100) {
+                throw new IllegalArgumentException("Percent must be between 1 and 100: " + percent);
+            }
+        } else {
+            price = Money.parse(fields[2]);
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Price must not be negative: " + Money.format(price));
+        }
+        return new Rule(type, description, quantity, price, percent, Arrays.copyOfRange(fields, first, fields.length));
+    }
+
+    // Looks up the rules' products in the catalog. Products that are missing
+    // or already in an earlier rule are left out and listed in getWarnings().
+    public static Promotions compile(List<Rule> rules, InventoryCatalog catalog) {
+        List<Product> members = new ArrayList<>();
+        List<Integer> memberRules = new ArrayList<>();
+        int[] firstMembers = new int[rules.size()];
+        int[] memberCounts = new int[rules.size()];
+        List<String> warnings = new ArrayList<>();
+        // Rule of each product taken so far, by store id
+        int[] ruleOfId = new int[0];
+        int idLimit = 0;
+
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            firstMembers[r] = members.size();
+            boolean incomplete = false;
+            for (String reference : rule.products) {
+                Product product = find(catalog, reference);
+                if (product == null) {
+                    warnings.add(reference + " in \"" + rule.description + "\" is not in the inventory");
+                    incomplete = true;
+                    continue;
+                }
+                int id = product.storeId();
+                if (id >= ruleOfId.length) {
+                    int old = ruleOfId.length;
+                    ruleOfId = Arrays.copyOf(ruleOfId, Math.max(id + 1, old * 2));
+                    Arrays.fill(ruleOfId, old, ruleOfId.length, -1);
+                }
+                if (ruleOfId[id] != -1) {
+                    warnings.add(reference + " in \"" + rule.description + "\" is already in \""
+                            + rules.get(ruleOfId[id]).description + "\"");
+                    incomplete = true;
+                    continue;
+                }
+                ruleOfId[id] = r;
+                idLimit = Math.max(idLimit, id + 1);
+                members.add(product);
+                memberRules.add(r);
+            }
+            if (incomplete && rule.type == BUNDLE) {
+                // Without all of its products a bundle would discount whatever is left
+                warnings.add("\"" + rule.description + "\" is disabled");
+                while (members.size() > firstMembers[r]) {
+                    ruleOfId[members.remove(members.size() - 1).storeId()] = -1;
+                    memberRules.remove(memberRules.size() - 1);
+                }
+            }
+            memberCounts[r] = members.size() - firstMembers[r];
+        }
+
+        int[] memberOfId = new int[idLimit];
+        Arrays.fill(memberOfId, -1);
+        int[] memberRuleArray = new int[members.size()];
+        for (int m = 0; m < members.size(); m++) {
+            memberOfId[members.get(m).storeId()] = m;
+            memberRuleArray[m] = memberRules.get(m);
+        }
+        return new Promotions(memberOfId, members.toArray(new Product[0]), memberRuleArray, rules,
+                firstMembers, memberCounts, Collections.unmodifiableList(warnings));
+    }
+
+    private static Product find(InventoryCatalog catalog, String reference) {
+        Product product = catalog.findByName(reference);
+        if (product == null && isBarcode(reference)) {
+            product = catalog.findBySku(Long.parseLong(reference));
+        }
+        return product;
+    }
+
+    private static boolean isBarcode(String text) {
+        if (text.isEmpty() || text.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Problems found by compile()
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public int getRuleCount() {
+        return ruleTypes.length;
+    }
+
+    // Discounts for the basket at the given unit prices, one per line. Lines
+    // for the same product add up, so it does not matter whether the basket
+    // comes from a Cart, which merges them, or not.
+    public Discounts evaluate(List<CheckoutEngine.Line> basket, long[] prices) {
+        if (memberProducts.length == 0) {
+            return NO_DISCOUNTS;
+        }
+        Scratch state = scratch.get();
+        try {
+            for (int i = 0; i < basket.size(); i++) {
+                CheckoutEngine.Line line = basket.get(i);
+                Product product = line.getProduct();
+                int id = product.storeId();
+                if (id < 0 || id >= memberOfId.length) {
+                    continue;
+                }
+                int member = memberOfId[id];
+                if (member == -1 || memberProducts[member] != product) {
+                    continue;
+                }
+                if (state.quantities[member] == 0) {
+                    state.members[state.memberCount++] = member;
+                    int rule = memberRules[member];
+                    if (!state.ruleSeen[rule]) {
+                        state.ruleSeen[rule] = true;
+                        state.rules[state.ruleCount++] = rule;
+                    }
+                }
+                state.quantities[member] = Math.addExact(state.quantities[member], line.getQuantity());
+                state.prices[member] = prices[i];
+            }
+            return discounts(state);
+        } finally {
+            for (int i = 0; i < state.memberCount; i++) {
+                state.quantities[state.members[i]] = 0;
+            }
+            for (int i = 0; i < state.ruleCount; i++) {
+                state.ruleSeen[state.rules[i]] = false;
+                state.discounts[state.rules[i]] = 0;
+            }
+            state.memberCount = 0;
+            state.ruleCount = 0;
+        }
+    }
+
+    private Discounts discounts(Scratch state) {
+        // Multi-buy and percentage rules price each product on its own
+        for (int i = 0; i < state.memberCount; i++) {
+            int member = state.members[i];
+            int rule = memberRules[member];
+            int quantity = state.quantities[member];
+            long price = state.prices[member];
+            if (ruleTypes[rule] == PERCENT) {
+                long gross = Money.times(price, quantity);
+                state.discounts[rule] += (Math.multiplyExact(gross, rulePercents[rule]) + 50) / 100;
+            } else if (ruleTypes[rule] == MULTIBUY) {
+                long saving = Money.times(price, ruleQuantities[rule]) - rulePrices[rule];
+                if (saving > 0) {
+                    state.discounts[rule] += Money.times(saving, quantity / ruleQuantities[rule]);
+                }
+            }
+        }
+
+        // A bundle needs every product, as many times as the scarcest one
+        int applied = 0;
+        for (int i = 0; i < state.ruleCount; i++) {
+            int rule = state.rules[i];
+            if (ruleTypes[rule] == BUNDLE) {
+                int complete = Integer.MAX_VALUE;
+                long together = 0;
+                int end = ruleFirstMembers[rule] + ruleMemberCounts[rule];
+                for (int member = ruleFirstMembers[rule]; member < end; member++) {
+                    complete = Math.min(complete, state.quantities[member]);
+                    together += state.prices[member];
+                }
+                if (ruleMemberCounts[rule] > 0 && complete > 0 && together > rulePrices[rule]) {
+                    state.discounts[rule] = Money.times(together - rulePrices[rule], complete);
+                }
+            }
+            if (state.discounts[rule] > 0) {
+                applied++;
+            }
+        }
+        if (applied == 0) {
+            return NO_DISCOUNTS;
+        }
+
+        String[] names = new String[applied];
+        long[] cents = new long[applied];
+        long total = 0;
+        int next = 0;
+        for (int i = 0; i < state.ruleCount; i++) {
+            int rule = state.rules[i];
+            if (state.discounts[rule] > 0) {
+                names[next] = ruleNames[rule];
+                cents[next] = state.discounts[rule];
+                total = Math.addExact(total, cents[next]);
+                next++;
+            }
+        }
+        return new Discounts(names, cents, total);
+    }
+}
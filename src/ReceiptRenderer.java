@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Formats receipts into a reusable char buffer. After the buffer has grown
+// to fit the largest receipt, rendering allocates nothing; the text can be
+// copied to a Writer or encoded into a ByteBuffer for printer spools.
+// Not thread-safe, use one renderer per thread.
+public class ReceiptRenderer {
+    private static final int NAME_WIDTH = 20;
+    private static final int PRICE_WIDTH = 10;
+    private static final int QUANTITY_WIDTH = 10;
+
+    private static final char[] HEADER = ("Receipt:\n\n"
+            + pad("Name", NAME_WIDTH) + " " + pad("Price", PRICE_WIDTH) + " " + pad("Quantity", QUANTITY_WIDTH) + "\n"
+            + "----------------------------------------------\n").toCharArray();
+    private static final char[] SEPARATOR = "----------------------------------------------\n".toCharArray();
+    private static final char[] TOTAL = "Total: $".toCharArray();
+
+    private char[] buffer = new char[1024];
+    private int length;
+
+    private CharBuffer chars = CharBuffer.wrap(buffer);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    public ReceiptRenderer render(CheckoutEngine.Receipt receipt) {
+        length = 0;
+        append(HEADER);
+        for (int i = 0; i < receipt.getLineCount(); i++) {
+            int start = length;
+            append(receipt.getName(i));
+            padTo(start + NAME_WIDTH);
+            append(' ');
+
+            start = length;
+            appendMoney(receipt.getPriceCents(i));
+            padTo(start + PRICE_WIDTH);
+            append(' ');
+
+            start = length;
+            appendInt(receipt.getQuantity(i));
+            padTo(start + QUANTITY_WIDTH);
+            append('\n');
+        }
+        for (int i = 0; i < receipt.getDiscountCount(); i++) {
+            int start = length;
+            append(receipt.getDiscountName(i));
+            padTo(start + NAME_WIDTH);
+            append(' ');
+            appendMoney(-receipt.getDiscountCents(i));
+            append('\n');
+        }
+        append(SEPARATOR);
+        append(TOTAL);
+        appendMoney(receipt.getTotalCents());
+        append('\n');
+        return this;
+    }
+
+    // The rendered text is buffer()[0, length())
+    public char[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void writeTo(Writer out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    // Encodes the receipt as UTF-8. Returns false, leaving the buffer as it
+    // was, if it does not have enough room.
+    public boolean writeTo(ByteBuffer out) {
+        int mark = out.position();
+        chars.limit(length).position(0);
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, out, true);
+        if (!result.isUnderflow() || !encoder.flush(out).isUnderflow()) {
+            out.position(mark);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (length + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+            chars = CharBuffer.wrap(buffer);
+        }
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = c;
+    }
+
+    private void append(char[] text) {
+        ensureCapacity(text.length);
+        System.arraycopy(text, 0, buffer, length, text.length);
+        length += text.length;
+    }
+
+    private void append(String text) {
+        ensureCapacity(text.length());
+        text.getChars(0, text.length(), buffer, length);
+        length += text.length();
+    }
+
+    // Left-aligned columns like "%-10s": pad with spaces, never truncate
+    private void padTo(int end) {
+        while (length < end) {
+            append(' ');
+        }
+    }
+
+    private void appendInt(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        ensureCapacity(20);
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    // Up to two decimals without trailing zeros, like DecimalFormat("#.##")
+    private void appendMoney(long cents) {
+        if (cents < 0) {
+            append('-');
+        }
+        appendInt(Math.abs(cents / 100));
+        int fraction = (int) Math.abs(cents % 100);
+        if (fraction != 0) {
+            append('.');
+            append((char) ('0' + fraction / 10));
+            if (fraction % 10 != 0) {
+                append((char) ('0' + fraction % 10));
+            }
+        }
+    }
+
+    private static String pad(String text, int width) {
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+}
@@ -0,0 +1,263 @@
+import javax.swing.SwingUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// The inventory of an InventoryServer, for SimplePOS running as one of
+// several tills. Requests are sent on one background thread in the order
+// they were made; results come back to the listener or callback on the EDT.
+// After a lost connection the next request connects again.
+public class RemoteInventory {
+
+    public interface Listener {
+        void inventoryLoaded(InventoryCatalog loaded);
+
+        // The server refused a change, so the local copy no longer matches it
+        void changeRefused(String message);
+
+        void connectionFailed(String message);
+    }
+
+    public interface CheckoutCallback {
+        // stocks[i] is what the server has left of the product on line i
+        void checkedOut(CheckoutEngine.Receipt receipt, int[] stocks);
+
+        void outOfStock(String name, int stock);
+
+        void failed(String message);
+    }
+
+    private interface Task {
+        void run(InventoryClient client) throws IOException;
+    }
+
+    private final String address;
+    private final Listener listener;
+    private final ThreadPoolExecutor executor;
+    // Only touched on the worker thread
+    private InventoryClient client;
+
+    public RemoteInventory(String address, Listener listener) {
+        this.address = address;
+        this.listener = listener;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "inventory-client");
+                    }
+                });
+    }
+
+    public void load() {
+        submit("Error loading inventory from server: ", new Task() {
+            @Override
+            public void run(InventoryClient client) throws IOException {
+                client.sendList();
+                client.flush();
+                InventoryClient.Response response = client.read();
+                if (!response.isOk()) {
+                    throw new IOException(InventoryProtocol.statusText(response.getStatus()));
+                }
+                final InventoryCatalog loaded = InventoryClient.readCatalog(response.getPayload());
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.inventoryLoaded(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    // Copies the basket on the calling thread (the EDT); the server checks
+    // the stock, takes the items out and prices them
+    public void checkout(List<CheckoutEngine.Line> basket, final CheckoutCallback callback) {
+        final String[] names = new String[basket.size()];
+        final int[] quantities = new int[basket.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = basket.get(i).getProduct().getName();
+            quantities[i] = basket.get(i).getQuantity();
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InventoryClient client = client();
+                    client.sendCheckout(names, quantities);
+                    client.flush();
+                    InventoryClient.Response response = client.read();
+                    answer(response, names, quantities, callback);
+                } catch (final IOException e) {
+                    disconnect();
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.failed("Error checking out with the inventory server: " + e.getMessage());
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // The stock change is what this till changed the stock by, the whole
+    // stock for a new product; the server adds it to its own stock
+    public void productSaved(Product product, final int stockChange) {
+        final String name = product.getName();
+        final long price = product.getPriceCents();
+        final long sku = product.getSku();
+        final int reorderLevel = product.getReorderLevel();
+        submitChange(name, new Task() {
+            @Override
+            public void run(InventoryClient client) throws IOException {
+                client.sendSave(name, price, stockChange, sku, reorderLevel);
+            }
+        });
+    }
+
+    public void productRenamed(final String oldName, final String newName) {
+        submitChange(oldName, new Task() {
+            @Override
+            public void run(InventoryClient client) throws IOException {
+                client.sendRename(oldName, newName);
+            }
+        });
+    }
+
+    public void productDeleted(final String name) {
+        submitChange(name, new Task() {
+            @Override
+            public void run(InventoryClient client) throws IOException {
+                client.sendDelete(name);
+            }
+        });
+    }
+
+    // Waits at most the given time for requests already made
+    public boolean close(long timeoutMillis) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnect();
+            }
+        });
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void answer(InventoryClient.Response response, String[] names, int[] quantities,
+            final CheckoutCallback callback) {
+        ByteBuffer payload = response.getPayload();
+        switch (response.getStatus()) {
+            case InventoryProtocol.OK:
+                long[] prices = new long[names.length];
+                final int[] stocks = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    prices[i] = payload.getLong();
+                    stocks[i] = payload.getInt();
+                }
+                final CheckoutEngine.Receipt receipt = CheckoutEngine.Receipt.completed(names, prices, quantities);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.checkedOut(receipt, stocks);
+                    }
+                });
+                break;
+            case InventoryProtocol.OUT_OF_STOCK:
+                final String name = InventoryProtocol.readName(payload);
+                final int stock = payload.getInt();
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.outOfStock(name, stock);
+                    }
+                });
+                break;
+            default:
+                final String message = (response.getStatus() == InventoryProtocol.UNKNOWN_PRODUCT)
+                        ? InventoryProtocol.readName(payload) + " is no longer in the inventory."
+                        : InventoryProtocol.statusText(response.getStatus());
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.failed(message);
+                    }
+                });
+        }
+    }
+
+    // Sends one change and reports it to the listener if the server refuses it
+    private void submitChange(final String name, final Task send) {
+        submit("Error saving inventory on server: ", new Task() {
+            @Override
+            public void run(InventoryClient client) throws IOException {
+                send.run(client);
+                client.flush();
+                final InventoryClient.Response response = client.read();
+                if (!response.isOk()) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.changeRefused(name + ": " + InventoryProtocol.statusText(response.getStatus()));
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void submit(final String errorPrefix, final Task task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run(client());
+                } catch (final IOException e) {
+                    disconnect();
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.connectionFailed(errorPrefix + e.getMessage());
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private InventoryClient client() throws IOException {
+        if (client == null) {
+            client = InventoryClient.connect(address);
+        }
+        return client;
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // Reconnecting on the next request anyway
+            }
+            client = null;
+        }
+    }
+
+    private static void post(Runnable runnable) {
+        SwingUtilities.invokeLater(runnable);
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Every line of every sale, stored by day in columns so reports only read
+// what they need. Each day is a directory named like 2026-10-17 holding
+//
+//   time.col      sale time, epoch millis (i64)
+//   product.col   product id (i32), a line number in products.txt
+//   quantity.col  quantity (i32)
+//   price.col     unit price in cents (i64)
+//   products.txt  product and promotion names, one per line
+//
+// with one big-endian value per sale line in each .col file. A promotion on
+// a receipt is recorded as a line of its own with quantity 0 and minus the
+// discount as its price, so revenue adds up to what was paid while units and
+// per-product totals leave it out, even if it shares a product's name. Sales are
+// recorded in memory by record() and appended to disk by flush(); a flush
+// cut short by a crash is trimmed back to the last complete line when the
+// day is opened again.
+//
+// record() may be called from any thread, flush() and close() must run on
+// a single thread.
+public class SalesLedger {
+    private static final String TIME = "time.col";
+    private static final String PRODUCT = "product.col";
+    private static final String QUANTITY = "quantity.col";
+    private static final String PRICE = "price.col";
+    private static final String PRODUCTS = "products.txt";
+
+    // Units and revenue per product, and discounts per promotion, for one day
+    public static class DaySales {
+        private final LocalDate day;
+        private final String[] products;
+        private final long[] units;
+        private final long[] revenueCents;
+        private final String[] promotions;
+        private final long[] discountCents;
+
+        DaySales(LocalDate day, String[] products, long[] units, long[] revenueCents, String[] promotions,
+                long[] discountCents) {
+            this.day = day;
+            this.products = products;
+            this.units = units;
+            this.revenueCents = revenueCents;
+            this.promotions = promotions;
+            this.discountCents = discountCents;
+        }
+
+        public LocalDate getDay() {
+            return day;
+        }
+
+        public int getProductCount() {
+            return products.length;
+        }
+
+        public String getProduct(int i) {
+            return products[i];
+        }
+
+        public long getUnits(int i) {
+            return units[i];
+        }
+
+        public long getRevenueCents(int i) {
+            return revenueCents[i];
+        }
+
+        public int getPromotionCount() {
+            return promotions.length;
+        }
+
+        public String getPromotion(int i) {
+            return promotions[i];
+        }
+
+        // Taken off receipts by the promotion, a positive amount
+        public long getDiscountCents(int i) {
+            return discountCents[i];
+        }
+
+        // What was paid: product revenue less every discount
+        public long getTotalRevenueCents() {
+            long total = 0;
+            for (long revenue : revenueCents) {
+                total += revenue;
+            }
+            for (long discount : discountCents) {
+                total -= discount;
+            }
+            return total;
+        }
+    }
+
+    // Time, quantity and unit price of each sale line of one day, in the
+    // order they were recorded. The lines of one receipt are recorded
+    // together with the same time, so a run of equal times is one receipt.
+    public static class DayLines {
+        private final LocalDate day;
+        private final long[] times;
+        private final int[] quantities;
+        private final long[] prices;
+
+        DayLines(LocalDate day, long[] times, int[] quantities, long[] prices) {
+            this.day = day;
+            this.times = times;
+            this.quantities = quantities;
+            this.prices = prices;
+        }
+
+        public LocalDate getDay() {
+            return day;
+        }
+
+        public int getLineCount() {
+            return times.length;
+        }
+
+        public long getTime(int line) {
+            return times[line];
+        }
+
+        public int getQuantity(int line) {
+            return quantities[line];
+        }
+
+        // Unit price, or for a discount minus the amount taken off
+        public long getPriceCents(int line) {
+            return prices[line];
+        }
+
+        // Whether the line is a promotion's discount rather than a product
+        public boolean isDiscount(int line) {
+            return quantities[line] == 0;
+        }
+    }
+
+    private final Path directory;
+    private final ZoneId zone;
+
+    // Lines recorded since the last flush, guarded by this
+    private long[] times = new long[64];
+    private String[] names = new String[64];
+    private int[] quantities = new int[64];
+    private long[] prices = new long[64];
+    private int pending;
+
+    // The day being appended to, only touched by flush()
+    private LocalDate openDay;
+    private FileChannel[] columns;
+    private FileChannel dictionary;
+    private Map<String, Integer> productIds;
+
+    public SalesLedger(Path directory) {
+        this(directory, ZoneId.systemDefault());
+    }
+
+    public SalesLedger(Path directory, ZoneId zone) {
+        this.directory = directory;
+        this.zone = zone;
+    }
+
+    public synchronized void record(long timeMillis, CheckoutEngine.Receipt receipt) {
+        for (int i = 0; i < receipt.getLineCount(); i++) {
+            add(timeMillis, receipt.getName(i), receipt.getQuantity(i), receipt.getPriceCents(i));
+        }
+        for (int i = 0; i < receipt.getDiscountCount(); i++) {
+            add(timeMillis, receipt.getDiscountName(i), 0, -receipt.getDiscountCents(i));
+        }
+    }
+
+    private void add(long timeMillis, String name, int quantity, long priceCents) {
+        if (pending == times.length) {
+            int capacity = pending * 2;
+            times = Arrays.copyOf(times, capacity);
+            names = Arrays.copyOf(names, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+        }
+        times[pending] = timeMillis;
+        names[pending] = name;
+        quantities[pending] = quantity;
+        prices[pending] = priceCents;
+        pending++;
+    }
+
+    // Appends the recorded lines to their day's files and forces them to disk
+    public void flush() throws IOException {
+        long[] batchTimes;
+        String[] batchNames;
+        int[] batchQuantities;
+        long[] batchPrices;
+        int count;
+        synchronized (this) {
+            if (pending == 0) {
+                return;
+            }
+            batchTimes = times;
+            batchNames = names;
+            batchQuantities = quantities;
+            batchPrices = prices;
+            count = pending;
+            times = new long[64];
+            names = new String[64];
+            quantities = new int[64];
+            prices = new long[64];
+            pending = 0;
+        }
+
+        int written = 0;
+        try {
+            while (written < count) {
+                LocalDate day = Instant.ofEpochMilli(batchTimes[written]).atZone(zone).toLocalDate();
+                int end = written + 1;
+                while (end < count && Instant.ofEpochMilli(batchTimes[end]).atZone(zone).toLocalDate().equals(day)) {
+                    end++;
+                }
+                append(day, batchTimes, batchNames, batchQuantities, batchPrices, written, end);
+                written = end;
+            }
+        } catch (IOException e) {
+            // Keep what did not make it for the next flush
+            requeue(batchTimes, batchNames, batchQuantities, batchPrices, written, count);
+            closeDay();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        flush();
+        closeDay();
+    }
+
+    // Totals per product for each day in the range that has sales
+    public List<DaySales> query(LocalDate from, LocalDate to) throws IOException {
+        List<DaySales> result = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            DaySales sales = readDay(directory, day);
+            if (sales != null) {
+                result.add(sales);
+            }
+        }
+        return result;
+    }
+
+    // Reads the product, quantity and price columns of one day; the time
+    // column is not touched. Returns null if nothing was sold that day.
+    public static DaySales readDay(Path directory, LocalDate day) throws IOException {
+        Path dayDirectory = directory.resolve(day.toString());
+        if (!Files.isDirectory(dayDirectory)) {
+            return null;
+        }
+        List<String> products = readProducts(dayDirectory.resolve(PRODUCTS));
+        try (FileChannel productColumn = FileChannel.open(dayDirectory.resolve(PRODUCT), StandardOpenOption.READ);
+                FileChannel quantityColumn = FileChannel.open(dayDirectory.resolve(QUANTITY), StandardOpenOption.READ);
+                FileChannel priceColumn = FileChannel.open(dayDirectory.resolve(PRICE), StandardOpenOption.READ)) {
+            long rows = Math.min(Math.min(productColumn.size() / 4, quantityColumn.size() / 4), priceColumn.size() / 8);
+            if (rows > Integer.MAX_VALUE / 8) {
+                throw new IOException("Too many sales on " + day + ": " + rows);
+            }
+            IntBuffer productIds = productColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 4).asIntBuffer();
+            IntBuffer quantities = quantityColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 4).asIntBuffer();
+            LongBuffer prices = priceColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 8).asLongBuffer();
+
+            // Indexed by name id; a promotion and a product may share a name
+            long[] units = new long[products.size()];
+            long[] revenue = new long[products.size()];
+            long[] discounts = new long[products.size()];
+            boolean[] sold = new boolean[products.size()];
+            boolean[] applied = new boolean[products.size()];
+            for (int row = 0; row < rows; row++) {
+                int product = productIds.get(row);
+                if (product < 0 || product >= units.length) {
+                    throw new IOException("Corrupt sales ledger for " + day + " at line " + row);
+                }
+                int quantity = quantities.get(row);
+                if (quantity == 0) {
+                    discounts[product] -= prices.get(row);
+                    applied[product] = true;
+                } else {
+                    units[product] += quantity;
+                    revenue[product] += prices.get(row) * quantity;
+                    sold[product] = true;
+                }
+            }
+
+            int productCount = 0;
+            int promotionCount = 0;
+            for (int id = 0; id < units.length; id++) {
+                if (sold[id]) {
+                    productCount++;
+                }
+                if (applied[id]) {
+                    promotionCount++;
+                }
+            }
+            if (productCount == units.length && promotionCount == 0) {
+                return new DaySales(day, products.toArray(new String[0]), units, revenue, new String[0], new long[0]);
+            }
+            String[] soldNames = new String[productCount];
+            long[] soldUnits = new long[productCount];
+            long[] soldRevenue = new long[productCount];
+            String[] promotionNames = new String[promotionCount];
+            long[] promotionDiscounts = new long[promotionCount];
+            productCount = 0;
+            promotionCount = 0;
+            for (int id = 0; id < units.length; id++) {
+                if (sold[id]) {
+                    soldNames[productCount] = products.get(id);
+                    soldUnits[productCount] = units[id];
+                    soldRevenue[productCount] = revenue[id];
+                    productCount++;
+                }
+                if (applied[id]) {
+                    promotionNames[promotionCount] = products.get(id);
+                    promotionDiscounts[promotionCount] = discounts[id];
+                    promotionCount++;
+                }
+            }
+            return new DaySales(day, soldNames, soldUnits, soldRevenue, promotionNames, promotionDiscounts);
+        }
+    }
+
+    public DayLines lines(LocalDate day) throws IOException {
+        return readLines(directory, day);
+    }
+
+    // Reads the time, quantity and price columns of one day; product names
+    // are not touched. Returns null if nothing was sold that day.
+    public static DayLines readLines(Path directory, LocalDate day) throws IOException {
+        Path dayDirectory = directory.resolve(day.toString());
+        if (!Files.isDirectory(dayDirectory)) {
+            return null;
+        }
+        try (FileChannel timeColumn = FileChannel.open(dayDirectory.resolve(TIME), StandardOpenOption.READ);
+                FileChannel quantityColumn = FileChannel.open(dayDirectory.resolve(QUANTITY), StandardOpenOption.READ);
+                FileChannel priceColumn = FileChannel.open(dayDirectory.resolve(PRICE), StandardOpenOption.READ)) {
+            long rows = Math.min(Math.min(timeColumn.size() / 8, quantityColumn.size() / 4), priceColumn.size() / 8);
+            if (rows > Integer.MAX_VALUE / 8) {
+                throw new IOException("Too many sales on " + day + ": " + rows);
+            }
+            long[] times = new long[(int) rows];
+            int[] quantities = new int[(int) rows];
+            long[] prices = new long[(int) rows];
+            timeColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 8).asLongBuffer().get(times);
+            quantityColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 4).asIntBuffer().get(quantities);
+            priceColumn.map(FileChannel.MapMode.READ_ONLY, 0, rows * 8).asLongBuffer().get(prices);
+            return new DayLines(day, times, quantities, prices);
+        }
+    }
+
+    private void append(LocalDate day, long[] batchTimes, String[] batchNames, int[] batchQuantities,
+            long[] batchPrices, int from, int to) throws IOException {
+        if (!day.equals(openDay)) {
+            openDay(day);
+        }
+
+        int count = to - from;
+        ByteBuffer time = ByteBuffer.allocate(count * 8);
+        ByteBuffer product = ByteBuffer.allocate(count * 4);
+        ByteBuffer quantity = ByteBuffer.allocate(count * 4);
+        ByteBuffer price = ByteBuffer.allocate(count * 8);
+        StringBuilder newProducts = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            Integer id = productIds.get(batchNames[i]);
+            if (id == null) {
+                id = productIds.size();
+                productIds.put(batchNames[i], id);
+                newProducts.append(batchNames[i]).append('\n');
+            }
+            time.putLong(batchTimes[i]);
+            product.putInt(id);
+            quantity.putInt(batchQuantities[i]);
+            price.putLong(batchPrices[i]);
+        }
+
+        // Names first, so every product id on disk has its name
+        if (newProducts.length() > 0) {
+            writeFully(dictionary, ByteBuffer.wrap(newProducts.toString().getBytes(StandardCharsets.UTF_8)));
+            dictionary.force(false);
+        }
+        ByteBuffer[] values = {time, product, quantity, price};
+        for (int c = 0; c < columns.length; c++) {
+            values[c].flip();
+            writeFully(columns[c], values[c]);
+        }
+        for (FileChannel column : columns) {
+            column.force(false);
+        }
+    }
+
+    // Opens a day for appending, cutting every column back to the lines
+    // that are complete in all of them
+    private void openDay(LocalDate day) throws IOException {
+        closeDay();
+        Path dayDirectory = directory.resolve(day.toString());
+        Files.createDirectories(dayDirectory);
+
+        Path dictionaryPath = dayDirectory.resolve(PRODUCTS);
+        List<String> products = Files.exists(dictionaryPath) ? readProducts(dictionaryPath) : new ArrayList<String>();
+        dictionary = FileChannel.open(dictionaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long dictionaryLength = 0;
+        productIds = new HashMap<>();
+        for (String name : products) {
+            productIds.put(name, productIds.size());
+            dictionaryLength += name.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        dictionary.truncate(dictionaryLength);
+        dictionary.position(dictionaryLength);
+
+        String[] files = {TIME, PRODUCT, QUANTITY, PRICE};
+        int[] widths = {8, 4, 4, 8};
+        columns = new FileChannel[files.length];
+        long rows = Long.MAX_VALUE;
+        for (int c = 0; c < files.length; c++) {
+            columns[c] = FileChannel.open(dayDirectory.resolve(files[c]), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            rows = Math.min(rows, columns[c].size() / widths[c]);
+        }
+        for (int c = 0; c < files.length; c++) {
+            columns[c].truncate(rows * widths[c]);
+            columns[c].position(rows * widths[c]);
+        }
+        openDay = day;
+    }
+
+    private void closeDay() throws IOException {
+        if (columns != null) {
+            for (FileChannel column : columns) {
+                column.close();
+            }
+            dictionary.close();
+        }
+        columns = null;
+        dictionary = null;
+        openDay = null;
+    }
+
+    // Names up to the last complete line; a name cut off by a crash is dropped
+    private static List<String> readProducts(Path path) throws IOException {
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        List<String> products = new ArrayList<>();
+        int start = 0;
+        for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start)) {
+            products.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return products;
+    }
+
+    // Puts lines back in front of those recorded since, keeping time order
+    private synchronized void requeue(long[] batchTimes, String[] batchNames, int[] batchQuantities,
+            long[] batchPrices, int from, int to) {
+        int count = to - from;
+        int capacity = Math.max(64, count + pending);
+        long[] mergedTimes = new long[capacity];
+        String[] mergedNames = new String[capacity];
+        int[] mergedQuantities = new int[capacity];
+        long[] mergedPrices = new long[capacity];
+        System.arraycopy(batchTimes, from, mergedTimes, 0, count);
+        System.arraycopy(batchNames, from, mergedNames, 0, count);
+        System.arraycopy(batchQuantities, from, mergedQuantities, 0, count);
+        System.arraycopy(batchPrices, from, mergedPrices, 0, count);
+        System.arraycopy(times, 0, mergedTimes, count, pending);
+        System.arraycopy(names, 0, mergedNames, count, pending);
+        System.arraycopy(quantities, 0, mergedQuantities, count, pending);
+        System.arraycopy(prices, 0, mergedPrices, count, pending);
+        times = mergedTimes;
+        names = mergedNames;
+        quantities = mergedQuantities;
+        prices = mergedPrices;
+        pending += count;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    //   java SalesLedger <sales directory> <from> <to>
+    // Prints units and revenue per product and the discount per promotion for
+    // each day, dates like 2026-10-17
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: SalesLedger <sales directory> <from> <to>");
+            System.exit(2);
+        }
+        SalesLedger ledger = new SalesLedger(Paths.get(args[0]));
+        for (DaySales sales : ledger.query(LocalDate.parse(args[1]), LocalDate.parse(args[2]))) {
+            System.out.println(sales.getDay() + "  total $" + Money.format(sales.getTotalRevenueCents()));
+            for (int i = 0; i < sales.getProductCount(); i++) {
+                System.out.printf("  %-30s %8d  $%s%n", sales.getProduct(i), sales.getUnits(i),
+                        Money.format(sales.getRevenueCents(i)));
+            }
+            for (int i = 0; i < sales.getPromotionCount(); i++) {
+                System.out.printf("  %-30s %8s -$%s%n", sales.getPromotion(i), "",
+                        Money.format(sales.getDiscountCents(i)));
+            }
+        }
+    }
+}
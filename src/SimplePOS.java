@@ -1,27 +1,81 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.TableCellRenderer;
 
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
-import java.text.DecimalFormat;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 
 public class SimplePOS extends JFrame {
-    private List<Product> inventory;
-    private List<Product> cart;
-    private DefaultTableModel inventoryTableModel;
-    private DefaultTableModel cartTableModel;
+    private InventoryCatalog inventory;
+    private Cart cart;
+    private InventoryTableModel inventoryTableModel;
+    private CartTableModel cartTableModel;
 
     private JTable inventoryTable;
+    private JTextField searchField;
+    private JLabel scanStatusLabel;
+    private JLabel subtotalLabel;
+    private BarcodeScanner scanner;
     private JTable cartTable;
     private JTextArea receiptTextArea;
+    private CheckoutEngine checkoutEngine;
+    private ReceiptRenderer receiptRenderer;
+    private PersistenceWorker persistence;
+    private InventoryJournal journal;
+    private SalesLedger ledger;
+    private AuditLog audit;
+    // Recent product changes, for Undo and Redo
+    private final UndoHistory undoHistory = new UndoHistory(UNDO_LIMIT);
+    // Set when running as a till of an InventoryServer, null otherwise
+    private RemoteInventory remote;
+    private JButton checkoutButton;
+    // Shows how many products are at or below their reorder level
+    private JButton reorderButton;
+    private JButton undoButton;
+    private JButton redoButton;
+    // As read from promotions.txt, compiled into checkoutEngine's promotions
+    private List<Promotions.Rule> promotionRules = new ArrayList<>();
+    // Set once the rules have been checked against a loaded inventory
+    private boolean promotionsChecked;
+    // False while a fast start shows the inventory file before it is fully
+    // loaded; the controls that change or depend on it are disabled until then
+    private boolean inventoryReady = true;
+    private final List<JComponent> inventoryControls = new ArrayList<>();
+    // Milliseconds since the JVM started, for the startup line; -1 until reached
+    private long windowShownMillis = -1;
+    private long previewShownMillis = -1;
+    private boolean startupReported;
 
     // File name for inventory data
     private static final String INVENTORY_FILE = "inventory.txt";
+    // Changes since inventory.txt was last written
+    private static final String JOURNAL_FILE = "inventory.journal";
+    // Day-by-day record of every sale
+    private static final String SALES_DIRECTORY = "sales";
+    // Who changed which product when, see AuditLog
+    private static final String AUDIT_DIRECTORY = "audit";
+    // Changes that can be undone
+    private static final int UNDO_LIMIT = 100;
+    // Changes listed by History
+    private static final int HISTORY_LIMIT = 500;
+    // Multi-buy, percentage and bundle promotions, see Promotions
+    private static final String PROMOTIONS_FILE = "promotions.txt";
+    // Where -Dpos.metrics=true writes its periodic dump
+    private static final String METRICS_FILE = "metrics.csv";
+    // How long closing the window waits for pending saves
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+    // Search results shown at once; typing more narrows them down
+    private static final int MAX_SEARCH_RESULTS = 200;
 
     class ButtonRenderer extends JButton implements TableCellRenderer {
         public ButtonRenderer() {
@@ -80,28 +134,135 @@ public class SimplePOS extends JFrame {
         }
     }
 
-    public SimplePOS() {
-        inventory = new ArrayList<>();
-        cart = new ArrayList<>();
-        inventoryTableModel = new DefaultTableModel();
-        cartTableModel = new DefaultTableModel() {
+    // serverAddress is "host:port" of an InventoryServer, or null to keep the
+    // inventory in local files. With fastStart the inventory file is shown
+    // read-only as soon as it is open, see PersistenceWorker.fastStart().
+    public SimplePOS(String serverAddress, boolean fastStart) {
+        inventory = new InventoryCatalog();
+        cart = new Cart();
+        inventoryTableModel = new InventoryTableModel(inventory);
+        cartTableModel = new CartTableModel(cart);
+        checkoutEngine = new CheckoutEngine(inventory);
+        inventory.setLowStockListener(new LowStockIndex.Listener() {
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Disable cart table editing
+            public void reorderNeeded(final Product product) {
+                // Called from the checkout that sold the product down to its level
+                final int stock = product.getStock();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        lowStockAlert(product, stock);
+                    }
+                });
             }
-        };
+        });
+        receiptRenderer = new ReceiptRenderer();
+        persistence = new PersistenceWorker(
+                new File(System.getProperty("user.dir") + File.separator + INVENTORY_FILE).toPath(),
+                new File(System.getProperty("user.dir") + File.separator + JOURNAL_FILE).toPath(),
+                new File(System.getProperty("user.dir") + File.separator + SALES_DIRECTORY).toPath(),
+                new File(System.getProperty("user.dir") + File.separator + AUDIT_DIRECTORY).toPath(),
+                new PersistenceWorker.Listener() {
+                    @Override
+                    public void inventoryLoaded(InventoryCatalog loaded, boolean fileFound) {
+                        showLoadedInventory(loaded, fileFound);
+                    }
+
+                    @Override
+                    public void inventoryLoadFailed(String message) {
+                        showLoadFailure(message);
+                    }
+
+                    @Override
+                    public void inventoryPreview(InventorySource file) {
+                        showInventoryPreview(file);
+                    }
+
+                    @Override
+                    public void snapshotNeeded() {
+                        saveInventoryToFile();
+                    }
+
+                    @Override
+                    public void persistenceFailed(String message) {
+                        JOptionPane.showMessageDialog(SimplePOS.this, message, "File Error", JOptionPane.ERROR_MESSAGE);
+                    }
+
+                    @Override
+                    public void importRead(Path path, InventoryImport.Rows rows) {
+                        mergeImport(path, rows);
+                    }
+
+                    @Override
+                    public void reportReady(EndOfDayReport report) {
+                        showEndOfDayReport(report);
+                    }
+
+                    @Override
+                    public void promotionsRead(List<Promotions.Rule> rules) {
+                        promotionRules = rules;
+                        compilePromotions();
+                    }
+
+                    @Override
+                    public void historyRead(String product, List<AuditLog.Record> records) {
+                        showHistory(product, records);
+                    }
+                });
+        journal = persistence.journal();
+        ledger = persistence.ledger();
+        audit = persistence.audit();
+        if (fastStart && serverAddress == null) {
+            persistence.fastStart();
+        }
+        if (serverAddress != null) {
+            remote = new RemoteInventory(serverAddress, new RemoteInventory.Listener() {
+                @Override
+                public void inventoryLoaded(InventoryCatalog loaded) {
+                    inventory.replaceWith(loaded);
+                    clearUndoHistory();
+                    updateInventoryTable();
+                }
+
+                @Override
+                public void changeRefused(String message) {
+                    JOptionPane.showMessageDialog(SimplePOS.this, message, "Inventory Server Error", JOptionPane.ERROR_MESSAGE);
+                    // Another till got there first; show the server's version
+                    loadInventoryFromFile();
+                }
+
+                @Override
+                public void connectionFailed(String message) {
+                    JOptionPane.showMessageDialog(SimplePOS.this, message, "Inventory Server Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+        }
+        scanner = new BarcodeScanner(this, new BarcodeScanner.Listener() {
+            @Override
+            public void barcodeScanned(long sku) {
+                scanToCart(sku);
+            }
+        });
+        scanner.install();
     
-        setTitle("Simple POS System");
+        setTitle(serverAddress == null ? "Simple POS System" : "Simple POS System - " + serverAddress);
         setSize(1100, 600);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeWindow();
+            }
+        });
         setLocationRelativeTo(null);
     
         initializeUI();
+        setVisible(true);
+        windowShownMillis = ManagementFactory.getRuntimeMXBean().getUptime();
     
-        // Load inventory data from file
+        // Load inventory data from file or server in the background
         loadInventoryFromFile();
-    
-        setVisible(true);
+        persistence.readPromotions(new File(System.getProperty("user.dir") + File.separator + PROMOTIONS_FILE).toPath());
     }        
 
     private void initializeUI() {
@@ -116,8 +277,6 @@ public class SimplePOS extends JFrame {
         receiptPanel.setBorder(BorderFactory.createTitledBorder("Receipt"));
     
         // Create inventory table
-        String[] inventoryHeaders = {"Name", "Price", "Stock", "Action"};
-        inventoryTableModel.setColumnIdentifiers(inventoryHeaders);
         inventoryTable = new JTable(inventoryTableModel) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -126,14 +285,36 @@ public class SimplePOS extends JFrame {
         };
         inventoryTable.getTableHeader().setReorderingAllowed(false); // Disable column reordering
         JScrollPane inventoryScrollPane = new JScrollPane(inventoryTable);
+
+        // Type-ahead search over product names, filtering the inventory table
+        searchField = new JTextField();
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchInventory();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchInventory();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchInventory();
+            }
+        });
+        reorderButton = new JButton("To Reorder");
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.add(new JLabel("Search:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        searchPanel.add(reorderButton, BorderLayout.EAST);
     
         // Set custom renderer and editor for the Action column
         inventoryTable.getColumn("Action").setCellRenderer(new ButtonRenderer());
         inventoryTable.getColumn("Action").setCellEditor(new ButtonEditor(new JCheckBox()));
     
         // Create cart table
-        String[] cartHeaders = {"Name", "Price", "Quantity"};
-        cartTableModel.setColumnIdentifiers(cartHeaders);
         cartTable = new JTable(cartTableModel) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -144,12 +325,31 @@ public class SimplePOS extends JFrame {
         JScrollPane cartScrollPane = new JScrollPane(cartTable);
     
         // Create buttons without borders
-        JButton checkoutButton = new JButton("Checkout");
+        checkoutButton = new JButton("Checkout");
         JButton editCartButton = new JButton("Edit Cart");
         JButton deleteItemButton = new JButton("Delete Item");
+        final JCheckBox scanModeBox = new JCheckBox("Scan Mode");
+        scanStatusLabel = new JLabel(" ");
+        subtotalLabel = new JLabel();
         JButton addProductButton = new JButton("Add Product");
         JButton editProductButton = new JButton("Edit Product");
         JButton deleteProductButton = new JButton("Delete Product");
+        JButton importButton = new JButton("Import...");
+        JButton exportButton = new JButton("Export...");
+        JButton endOfDayButton = new JButton("End of Day");
+        undoButton = new JButton("Undo");
+        redoButton = new JButton("Redo");
+        JButton historyButton = new JButton("History");
+        inventoryControls.add(searchField);
+        inventoryControls.add(reorderButton);
+        inventoryControls.add(checkoutButton);
+        inventoryControls.add(addProductButton);
+        inventoryControls.add(editProductButton);
+        inventoryControls.add(deleteProductButton);
+        inventoryControls.add(importButton);
+        inventoryControls.add(exportButton);
+        inventoryControls.add(endOfDayButton);
+        inventoryControls.add(historyButton);
     
         // Create receipt text area
         receiptTextArea = new JTextArea();
@@ -168,12 +368,16 @@ public class SimplePOS extends JFrame {
         getContentPane().add(receiptPanel, BorderLayout.EAST);
     
         // Add components to panels
+        inventoryPanel.add(searchPanel, BorderLayout.NORTH);
         inventoryPanel.add(inventoryScrollPane, BorderLayout.CENTER);
 
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         buttonPanel.add(checkoutButton);
         buttonPanel.add(editCartButton);
         buttonPanel.add(deleteItemButton);
+        buttonPanel.add(scanModeBox);
+        buttonPanel.add(subtotalLabel);
+        updateSubtotal();
         
     
         // Create a panel for the buttons with FlowLayout (horizontal layout)
@@ -181,10 +385,18 @@ public class SimplePOS extends JFrame {
         inventoryButtonPanel.add(addProductButton);
         inventoryButtonPanel.add(editProductButton);
         inventoryButtonPanel.add(deleteProductButton);
+        inventoryButtonPanel.add(importButton);
+        inventoryButtonPanel.add(exportButton);
+        inventoryButtonPanel.add(endOfDayButton);
+        inventoryButtonPanel.add(undoButton);
+        inventoryButtonPanel.add(redoButton);
+        inventoryButtonPanel.add(historyButton);
+        updateUndoButtons();
     
         inventoryPanel.add(inventoryButtonPanel, BorderLayout.SOUTH);
         cartPanel.add(cartScrollPane, BorderLayout.CENTER);
         cartPanel.add(buttonPanel,BorderLayout.SOUTH);
+        cartPanel.add(scanStatusLabel, BorderLayout.NORTH);
         receiptPanel.add(receiptScrollPane, BorderLayout.CENTER);
     
         // Add action listeners
@@ -203,6 +415,14 @@ public class SimplePOS extends JFrame {
             }
         });
 
+        scanModeBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                scanner.setEnabled(scanModeBox.isSelected());
+                scanStatusLabel.setText(scanModeBox.isSelected() ? "Ready to scan" : " ");
+            }
+        });
+
         checkoutButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -230,45 +450,118 @@ public class SimplePOS extends JFrame {
                 deleteProduct();
             }
         });
-    
-        // Load inventory data from file
-        loadInventoryFromFile();
-    
-        // Add sample data if file is not found
-        if (inventory.isEmpty()) {
-            addSampleData();
-        }
+
+        importButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                importInventory();
+            }
+        });
+
+        exportButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                exportInventory();
+            }
+        });
+
+        endOfDayButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                persistence.endOfDayReport(inventory);
+            }
+        });
+
+        reorderButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showToReorder();
+            }
+        });
+
+        undoButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+
+        redoButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+
+        historyButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                requestHistory();
+            }
+        });
     }
     
     private void addProduct() {
         JTextField nameField = new JTextField();
         JTextField priceField = new JTextField();
         JTextField stockField = new JTextField();
+        JTextField skuField = new JTextField();
+        JTextField reorderField = new JTextField();
         Object[] inputFields = {
             "Name:", nameField,
             "Price:", priceField,
-            "Stock:", stockField
+            "Stock:", stockField,
+            "Barcode (optional):", skuField,
+            "Reorder level (optional):", reorderField
         };
     
         int option = JOptionPane.showConfirmDialog(this, inputFields, "Add Product", JOptionPane.OK_CANCEL_OPTION);
         if (option == JOptionPane.OK_OPTION) {
             String name = nameField.getText();
-            double price;
+            long price;
             int stock;
+            long sku;
+            int reorderLevel;
             try {
-                price = Double.parseDouble(priceField.getText());
+                price = Money.parse(priceField.getText());
                 stock = Integer.parseInt(stockField.getText());
+                sku = parseSku(skuField.getText());
+                reorderLevel = parseReorderLevel(reorderField.getText());
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(this, "Invalid input. Please enter valid values.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
     
-            Product product = new Product(name, price, stock);
-            inventory.add(product);
-            updateInventoryTable();
-            saveInventoryToFile();
+            String nameProblem = InventoryFile.checkName(name);
+            if (nameProblem != null) {
+                JOptionPane.showMessageDialog(this, nameProblem, "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (inventory.findBySku(sku) != null) {
+                JOptionPane.showMessageDialog(this, "A product with this barcode already exists.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            Product product = new Product(name, price, stock, sku, reorderLevel);
+            if (!inventory.add(product)) {
+                JOptionPane.showMessageDialog(this, "A product with this name already exists.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            productAdded(product);
+            rememberChange(null, product.copy());
+            commitInventoryChanges();
         }
     }
+
+    // Table, promotions and persistence after a product was added to the inventory
+    private void productAdded(Product product) {
+        inventoryTableModel.productInserted(inventory.size() - 1);
+        if (inventoryTableModel.isFiltered()) {
+            searchInventory();
+        }
+        updateReorderButton();
+        compilePromotions();
+        recordProductSaved(product, product.getStock());
+    }
     
     private void editProduct() {
         int selectedRow = inventoryTable.getSelectedRow();
@@ -277,47 +570,90 @@ public class SimplePOS extends JFrame {
             return;
         }
     
-        String name = (String) inventoryTableModel.getValueAt(selectedRow, 0);
-        double price = (double) inventoryTableModel.getValueAt(selectedRow, 1);
-        int stock = (int) inventoryTableModel.getValueAt(selectedRow, 2);
+        // Table rows differ from inventory rows while search results are shown
+        int row = inventoryTableModel.inventoryRow(selectedRow);
+        Product product = inventory.get(row);
+        Product before = product.copy();
+        String name = product.getName();
+        long price = product.getPriceCents();
+        int stock = product.getStock();
+        long sku = product.getSku();
+        int reorderLevel = product.getReorderLevel();
     
         JTextField nameField = new JTextField(name);
-        JTextField priceField = new JTextField(String.valueOf(price));
+        JTextField priceField = new JTextField(Money.format(price));
         JTextField stockField = new JTextField(String.valueOf(stock));
+        JTextField skuField = new JTextField(sku == 0 ? "" : String.valueOf(sku));
+        JTextField reorderField = new JTextField(reorderLevel == 0 ? "" : String.valueOf(reorderLevel));
         Object[] inputFields = {
             "Name:", nameField,
             "Price:", priceField,
-            "Stock:", stockField
+            "Stock:", stockField,
+            "Barcode (optional):", skuField,
+            "Reorder level (optional):", reorderField
         };
     
         int option = JOptionPane.showConfirmDialog(this, inputFields, "Edit Product", JOptionPane.OK_CANCEL_OPTION);
         if (option == JOptionPane.OK_OPTION) {
             name = nameField.getText();
             try {
-                price = Double.parseDouble(priceField.getText());
+                price = Money.parse(priceField.getText());
                 stock = Integer.parseInt(stockField.getText());
+                sku = parseSku(skuField.getText());
+                reorderLevel = parseReorderLevel(reorderField.getText());
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(this, "Invalid input. Please enter valid values.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
     
-            Product product = inventory.get(selectedRow);
-            product.setName(name);
-            product.setPrice(price);
-            product.setStock(stock);
-            updateInventoryTable();
-            saveInventoryToFile();
+            // Names loaded from a binary inventory may be kept as they are
+            String nameProblem = name.equals(product.getName()) ? null : InventoryFile.checkName(name);
+            if (nameProblem != null) {
+                JOptionPane.showMessageDialog(this, nameProblem, "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            Product barcodeOwner = inventory.findBySku(sku);
+            if (barcodeOwner != null && barcodeOwner != product) {
+                JOptionPane.showMessageDialog(this, "A product with this barcode already exists.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            int nameOwner = inventory.indexOf(name);
+            if (nameOwner != -1 && nameOwner != row) {
+                JOptionPane.showMessageDialog(this, "A product with this name already exists.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            updateProduct(row, name, price, stock, sku, reorderLevel);
+            rememberChange(before, product.copy());
+            commitInventoryChanges();
         }
     }
 
-    private void updateCartTable() {
-        cartTableModel.setRowCount(0); // Clear existing cart table
-    
-        // Populate cart data into table
-        for (Product product : cart) {
-            Object[] rowData = {product.getName(), product.getPrice(), product.getStock()};
-            cartTableModel.addRow(rowData);
+    // Sets every value of the product at the row; the name and barcode must
+    // not belong to another product
+    private void updateProduct(int row, String name, long price, int stock, long sku, int reorderLevel) {
+        Product product = inventory.get(row);
+        String oldName = product.getName();
+        int stockChange = stock - product.getStock();
+        inventory.rename(row, name);
+        inventory.setSku(row, sku);
+        product.setPriceCents(price);
+        product.setStock(stock);
+        inventory.setReorderLevel(row, reorderLevel);
+        inventoryTableModel.productUpdated(row);
+        updateReorderButton();
+        int line = cart.priceChanged(product);
+        if (line != -1) {
+            cartTableModel.itemUpdated(line);
+            updateSubtotal();
+        }
+
+        if (!oldName.equals(name)) {
+            recordProductRenamed(oldName, name);
+            if (inventoryTableModel.isFiltered()) {
+                searchInventory();
+            }
         }
+        recordProductSaved(product, stockChange);
     }
 
     private void editCart() {
@@ -328,10 +664,8 @@ public class SimplePOS extends JFrame {
             return;
         }
     
-        // Get current values from the cart table
-        String name = (String) cartTableModel.getValueAt(selectedRow, 0);
-        double price = (double) cartTableModel.getValueAt(selectedRow, 1);
-        int currentQuantity = (int) cartTableModel.getValueAt(selectedRow, 2);
+        // Cart rows are in the same order as the cart lines
+        int currentQuantity = cart.getQuantity(selectedRow);
     
         // Prompt user for new quantity
         String newQuantityStr = JOptionPane.showInputDialog(this, "Enter new quantity:", currentQuantity);
@@ -347,21 +681,16 @@ public class SimplePOS extends JFrame {
                 return;
             }
     
-            // Update cart list with new quantity
-            Product productToUpdate = null;
-            for (Product cartProduct : cart) {
-                if (cartProduct.getName().equals(name)) {
-                    productToUpdate = cartProduct;
-                    break;
-                }
-            }
-    
-            if (productToUpdate != null) {
-                productToUpdate.setStock(newQuantity);
+            // Update cart line with new quantity
+            if (!cart.setQuantity(selectedRow, newQuantity)) {
+                JOptionPane.showMessageDialog(this, "Insufficient stock available.",
+                        "Stock Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
     
             // Update cart table with new quantity
-            cartTableModel.setValueAt(newQuantity, selectedRow, 2);
+            cartTableModel.itemUpdated(selectedRow);
+            updateSubtotal();
     
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this, "Invalid quantity input. Please enter a number.",
@@ -377,27 +706,12 @@ public class SimplePOS extends JFrame {
             return;
         }
     
-        // Get the name of the product to delete
-        String nameToDelete = (String) cartTableModel.getValueAt(selectedRow, 0);
-    
-        // Find the corresponding product in the cart list and remove it
-        Product productToRemove = null;
-        for (Product cartProduct : cart) {
-            if (cartProduct.getName().equals(nameToDelete)) {
-                productToRemove = cartProduct;
-                break;
-            }
-        }
-    
-        if (productToRemove != null) {
-            cart.remove(productToRemove);
-            cartTableModel.removeRow(selectedRow);
-            JOptionPane.showMessageDialog(this, "Product deleted from cart successfully.",
-                    "Delete Item", JOptionPane.INFORMATION_MESSAGE);
-        } else {
-            JOptionPane.showMessageDialog(this, "Product not found in cart.",
-                    "Delete Item", JOptionPane.ERROR_MESSAGE);
-        }
+        // Cart rows are in the same order as the cart lines
+        cart.remove(selectedRow);
+        cartTableModel.itemRemoved(selectedRow);
+        updateSubtotal();
+        JOptionPane.showMessageDialog(this, "Product deleted from cart successfully.",
+                "Delete Item", JOptionPane.INFORMATION_MESSAGE);
     }
     
        
@@ -410,23 +724,210 @@ public class SimplePOS extends JFrame {
     
         int option = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete the selected product?", "Delete Product", JOptionPane.YES_NO_OPTION);
         if (option == JOptionPane.YES_OPTION) {
-            inventory.remove(selectedRow);
-            updateInventoryTable();
-            saveInventoryToFile();
+            int row = inventoryTableModel.inventoryRow(selectedRow);
+            Product removed = removeProduct(row);
+            rememberChange(removed.copy(), null);
+            commitInventoryChanges();
+        }
+    }
+
+    private Product removeProduct(int row) {
+        Product removed = inventory.remove(row);
+        inventoryTableModel.productDeleted(row, removed);
+
+        // A deleted product cannot be sold any more
+        int line = cart.indexOf(removed);
+        if (line != -1) {
+            cart.remove(line);
+            cartTableModel.itemRemoved(line);
+            updateSubtotal();
+        }
+        updateReorderButton();
+        recordProductDeleted(removed.getName());
+        return removed;
+    }
+
+    // Records a change made by hand in the audit log and makes it the next to undo
+    private void rememberChange(Product before, Product after) {
+        undoHistory.add(audit.record(AuditLog.CHANGED, before, after));
+        updateUndoButtons();
+    }
+
+    private void undo() {
+        byte[] change = undoHistory.peekUndo();
+        if (change == null) {
+            return;
+        }
+        AuditLog.Record record = AuditLog.decode(change);
+        String error = applyChange(record.getAfter(), record.getBefore(), AuditLog.UNDONE);
+        if (error == null) {
+            undoHistory.undone();
+        } else {
+            undoHistory.dropUndo();
+            JOptionPane.showMessageDialog(this, "Cannot undo " + record.getProductName() + ": " + error + ".",
+                    "Undo", JOptionPane.ERROR_MESSAGE);
+        }
+        updateUndoButtons();
+    }
+
+    private void redo() {
+        byte[] change = undoHistory.peekRedo();
+        if (change == null) {
+            return;
+        }
+        AuditLog.Record record = AuditLog.decode(change);
+        String error = applyChange(record.getBefore(), record.getAfter(), AuditLog.REDONE);
+        if (error == null) {
+            undoHistory.redone();
+        } else {
+            undoHistory.dropRedo();
+            JOptionPane.showMessageDialog(this, "Cannot redo " + record.getProductName() + ": " + error + ".",
+                    "Redo", JOptionPane.ERROR_MESSAGE);
+        }
+        updateUndoButtons();
+    }
+
+    // Turns the product as recorded in from into to: adds it when from is
+    // null, deletes it when to is null. Stock moves by the recorded
+    // difference, so sales made since are kept. Returns why it cannot, or
+    // null once done.
+    private String applyChange(Product from, Product to, byte action) {
+        int row = (from == null) ? -1 : inventory.indexOf(from.getName());
+        if (from != null && row == -1) {
+            return from.getName() + " is no longer in the inventory";
+        }
+        if (to != null) {
+            int nameOwner = inventory.indexOf(to.getName());
+            if (nameOwner != -1 && nameOwner != row) {
+                return "another product is named " + to.getName();
+            }
+            Product barcodeOwner = inventory.findBySku(to.getSku());
+            if (barcodeOwner != null && (row == -1 || barcodeOwner != inventory.get(row))) {
+                return "barcode " + to.getSku() + " belongs to " + barcodeOwner.getName();
+            }
+        }
+
+        if (to == null) {
+            Product removed = removeProduct(row);
+            audit.record(action, removed.copy(), null);
+        } else if (from == null) {
+            Product product = to.copy();
+            inventory.add(product);
+            productAdded(product);
+            audit.record(action, null, product.copy());
+        } else {
+            Product product = inventory.get(row);
+            Product before = product.copy();
+            int stock = Math.max(0, product.getStock() + to.getStock() - from.getStock());
+            updateProduct(row, to.getName(), to.getPriceCents(), stock, to.getSku(), to.getReorderLevel());
+            audit.record(action, before, product.copy());
+        }
+        commitInventoryChanges();
+        return null;
+    }
+
+    private void updateUndoButtons() {
+        byte[] undo = undoHistory.peekUndo();
+        byte[] redo = undoHistory.peekRedo();
+        undoButton.setEnabled(inventoryReady && undo != null);
+        redoButton.setEnabled(inventoryReady && redo != null);
+        undoButton.setToolTipText(undo == null ? null : "Undo " + describeChange(undo));
+        redoButton.setToolTipText(redo == null ? null : "Redo " + describeChange(redo));
+    }
+
+    private static String describeChange(byte[] change) {
+        AuditLog.Record record = AuditLog.decode(change);
+        return record.getProductName() + ": " + record.describe();
+    }
+
+    // Changes made before the inventory was replaced cannot be applied to it
+    private void clearUndoHistory() {
+        undoHistory.clear();
+        updateUndoButtons();
+    }
+
+    // The audit log of the selected product, or of every product if none is selected
+    private void requestHistory() {
+        int selectedRow = inventoryTable.getSelectedRow();
+        String product = (selectedRow == -1) ? null
+                : inventory.getName(inventoryTableModel.inventoryRow(selectedRow));
+        persistence.auditHistory(product, HISTORY_LIMIT);
+    }
+
+    private void showHistory(String product, List<AuditLog.Record> records) {
+        String title = (product == null) ? "History" : "History of " + product;
+        if (records.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No changes recorded.", title, JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        ZoneId zone = ZoneId.systemDefault();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            text.append(records.get(i).toText(zone)).append('\n');
         }
+        JTextArea area = new JTextArea(text.toString());
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(area);
+        scrollPane.setPreferredSize(new Dimension(760, 400));
+        JOptionPane.showMessageDialog(this, scrollPane, title, JOptionPane.PLAIN_MESSAGE);
     }
     
+    // Price and stock updates from a supplier feed or another inventory file,
+    // read in the background and merged by mergeImport()
+    private void importInventory() {
+        if (remote != null) {
+            JOptionPane.showMessageDialog(this, "Import the file on the inventory server instead.",
+                    "Import", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser(System.getProperty("user.dir"));
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            persistence.importFile(chooser.getSelectedFile().toPath());
+        }
+    }
+
+    private void mergeImport(Path path, InventoryImport.Rows rows) {
+        InventoryImport.Result result = InventoryImport.merge(rows, inventory, audit);
+        // Imported values would be overwritten by undoing earlier changes
+        clearUndoHistory();
+
+        // Cart lines keep the price they were added at until told of a change
+        for (int line = 0; line < cart.size(); line++) {
+            cart.priceChanged(cart.getProduct(line));
+        }
+        cartTableModel.cartChanged();
+        updateSubtotal();
+        updateInventoryTable();
+
+        // One snapshot instead of a journal record per product
+        saveInventoryToFile();
+        JOptionPane.showMessageDialog(this, "Imported " + path.getFileName() + ": " + result.toText() + ".",
+                "Import", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void exportInventory() {
+        JFileChooser chooser = new JFileChooser(System.getProperty("user.dir"));
+        chooser.setSelectedFile(new File("inventory-export.csv"));
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            persistence.exportFile(chooser.getSelectedFile().toPath(), inventory);
+        }
+    }
+
     private void addSampleData() {
         // Adding sample products to inventory
-        inventory.add(new Product("Product 1", 10.0, 20));
-        inventory.add(new Product("Product 2", 15.0, 15));
-        inventory.add(new Product("Product 3", 20.0, 10));
+        inventory.add(new Product("Product 1", Money.parse("10.00"), 20, 1001));
+        inventory.add(new Product("Product 2", Money.parse("15.00"), 15, 1002));
+        inventory.add(new Product("Product 3", Money.parse("20.00"), 10, 1003));
     
         // Update inventory table with sample data
         updateInventoryTable();
     }    
 
     public void addToCart(JButton button) {
+        if (!inventoryReady) {
+            return;
+        }
         int selectedRow = inventoryTable.getSelectedRow();
         if (selectedRow == -1) {
             JOptionPane.showMessageDialog(this, "Please select a product to add to cart.",
@@ -435,9 +936,7 @@ public class SimplePOS extends JFrame {
         }
     
         // Get product details from selected row
-        String name = (String) inventoryTableModel.getValueAt(selectedRow, 0);
-        double price = (double) inventoryTableModel.getValueAt(selectedRow, 1);
-        int stock = (int) inventoryTableModel.getValueAt(selectedRow, 2);
+        Product inventoryProduct = inventoryTableModel.productAt(selectedRow);
     
         // Prompt user for quantity
         String quantityStr = JOptionPane.showInputDialog(this, "Enter quantity:");
@@ -452,19 +951,18 @@ public class SimplePOS extends JFrame {
                         "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            if (quantity > stock) {
+    
+            // Add product to cart, on top of what the cart already holds of it
+            int lines = cart.size();
+            int line = cart.add(inventoryProduct, quantity);
+            if (line == -1) {
                 JOptionPane.showMessageDialog(this, "Insufficient stock available.",
                         "Stock Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
     
-            // Add product to cart
-            Product product = new Product(name, price, quantity);
-            cart.add(product);
-    
             // Update cart table
-            Object[] cartRowData = {name, price, quantity};
-            cartTableModel.addRow(cartRowData);
+            cartLineChanged(line, lines);
     
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this, "Invalid quantity input. Please enter a number.",
@@ -472,119 +970,389 @@ public class SimplePOS extends JFrame {
         }
     }
     
+    // Scan mode: one more of the scanned product, merged into its cart line
+    // when there is one. Problems are reported in the status line rather
+    // than in a dialog so the next scan is not blocked.
+    private void scanToCart(long sku) {
+        if (!inventoryReady) {
+            Toolkit.getDefaultToolkit().beep();
+            scanStatusLabel.setText("Inventory is still loading");
+            return;
+        }
+        Product inventoryProduct = inventory.findBySku(sku);
+        if (inventoryProduct == null) {
+            Toolkit.getDefaultToolkit().beep();
+            scanStatusLabel.setText("Unknown barcode " + sku);
+            return;
+        }
+
+        int lines = cart.size();
+        int line = cart.add(inventoryProduct, 1);
+        if (line == -1) {
+            Toolkit.getDefaultToolkit().beep();
+            scanStatusLabel.setText("Insufficient stock for " + inventoryProduct.getName());
+            return;
+        }
+        cartLineChanged(line, lines);
+        scanStatusLabel.setText("Scanned " + inventoryProduct.getName() + " x" + cart.getQuantity(line));
+    }
+
+    // Table update after Cart.add(), given the line count before it
+    private void cartLineChanged(int line, int linesBefore) {
+        if (cart.size() > linesBefore) {
+            cartTableModel.itemAdded(line);
+        } else {
+            cartTableModel.itemUpdated(line);
+        }
+        updateSubtotal();
+    }
+
+    private void updateSubtotal() {
+        subtotalLabel.setText("Subtotal: $" + Money.format(cart.getSubtotalCents()));
+    }
+
+    // Empty means no reorder alert
+    private static int parseReorderLevel(String text) {
+        text = text.trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        int level = Integer.parseInt(text);
+        if (level < 0) {
+            throw new NumberFormatException("Invalid reorder level: " + text);
+        }
+        return level;
+    }
+
+    // Empty means no barcode
+    private static long parseSku(String text) {
+        text = text.trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        long sku = Long.parseLong(text);
+        if (sku <= 0) {
+            throw new NumberFormatException("Invalid barcode: " + text);
+        }
+        return sku;
+    }
+
     private void checkout() {
-        // Calculate total and generate receipt
-        double total = 0;
-        StringBuilder receiptBuilder = new StringBuilder();
-        DecimalFormat df = new DecimalFormat("#.##");
-    
-        receiptBuilder.append("Receipt:\n\n");
-        receiptBuilder.append(String.format("%-20s %-10s %-10s\n", "Name", "Price", "Quantity"));
-        receiptBuilder.append("----------------------------------------------\n");
-    
-        // Calculate total and update inventory after confirming purchase
-        List<Product> productsToRemove = new ArrayList<>();
-        for (Product cartProduct : cart) {
-            double lineTotal = cartProduct.getPrice() * cartProduct.getStock();
-            receiptBuilder.append(String.format("%-20s %-10s %-10s\n", cartProduct.getName(),
-                    df.format(cartProduct.getPrice()), cartProduct.getStock()));
-            total += lineTotal;
-    
-            // Find the corresponding product in inventory to update stock
-            for (Product inventoryProduct : inventory) {
-                if (inventoryProduct.getName().equals(cartProduct.getName())) {
-                    int newStock = inventoryProduct.getStock() - cartProduct.getStock();
-                    inventoryProduct.setStock(newStock);
-                    productsToRemove.add(cartProduct);
-                    break;
-                }
+        // Cart lines hold the live inventory products
+        final List<CheckoutEngine.Line> basket = cart.toLines();
+        for (CheckoutEngine.Line line : basket) {
+            Product product = line.getProduct();
+            if (inventory.findByName(product.getName()) != product) {
+                JOptionPane.showMessageDialog(this, product.getName() + " is no longer in the inventory.",
+                        "Checkout", JOptionPane.ERROR_MESSAGE);
+                return;
             }
         }
     
-        // Remove products from cart after checkout
-        cart.removeAll(productsToRemove);
+        if (remote != null) {
+            checkoutOnServer(basket);
+            return;
+        }
     
-        receiptBuilder.append("----------------------------------------------\n");
-        receiptBuilder.append(String.format("Total: $%s\n", df.format(total)));
+        // Calculate total and update inventory
+        CheckoutEngine.Receipt receipt = checkoutEngine.checkout(basket);
+        if (!receipt.isCompleted()) {
+            JOptionPane.showMessageDialog(this, "Insufficient stock available for " + receipt.getOutOfStock().getName() + ".",
+                    "Stock Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        for (CheckoutEngine.Line line : basket) {
+            Product inventoryProduct = line.getProduct();
+            journal.stockChanged(inventoryProduct.getName(), -line.getQuantity());
+            inventoryTableModel.productUpdated(inventory.indexOf(inventoryProduct.getName()));
+        }
+        completeCheckout(receipt);
+    }
+
+    // The server has the final say on stock, so the sale only completes once it answers
+    private void checkoutOnServer(final List<CheckoutEngine.Line> basket) {
+        checkoutButton.setEnabled(false);
+        remote.checkout(basket, new RemoteInventory.CheckoutCallback() {
+            @Override
+            public void checkedOut(CheckoutEngine.Receipt receipt, int[] stocks) {
+                checkoutButton.setEnabled(true);
+                for (int i = 0; i < stocks.length; i++) {
+                    Product inventoryProduct = basket.get(i).getProduct();
+                    inventoryProduct.setStock(stocks[i]);
+                    inventory.stockChanged(inventoryProduct);
+                    int row = inventory.indexOf(inventoryProduct.getName());
+                    if (row != -1) {
+                        inventoryTableModel.productUpdated(row);
+                    }
+                }
+                // The server prices each line; promotions are this till's own
+                completeCheckout(receipt.withPromotions(checkoutEngine.getPromotions(), basket));
+            }
+
+            @Override
+            public void outOfStock(String name, int stock) {
+                checkoutButton.setEnabled(true);
+                // Other tills have sold some since the inventory was loaded
+                int row = inventory.indexOf(name);
+                if (row != -1) {
+                    inventory.get(row).setStock(stock);
+                    inventory.stockChanged(inventory.get(row));
+                    inventoryTableModel.productUpdated(row);
+                }
+                JOptionPane.showMessageDialog(SimplePOS.this, "Insufficient stock available for " + name + ".",
+                        "Stock Error", JOptionPane.ERROR_MESSAGE);
+            }
+
+            @Override
+            public void failed(String message) {
+                checkoutButton.setEnabled(true);
+                JOptionPane.showMessageDialog(SimplePOS.this, message, "Checkout", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    private void completeCheckout(CheckoutEngine.Receipt receipt) {
+        ledger.record(System.currentTimeMillis(), receipt);
+    
+        // Remove products from cart after checkout
+        cart.clear();
     
         // Display receipt in text area
-        receiptTextArea.setText(receiptBuilder.toString());
+        receiptTextArea.setText(receiptRenderer.render(receipt).toString());
     
-        // Clear cart table and update UI
-        cartTableModel.setRowCount(0);
+        // Refresh cart table and update UI
+        cartTableModel.cartChanged();
+        updateSubtotal();
         JOptionPane.showMessageDialog(this, "Checkout completed successfully!", "Checkout",
                 JOptionPane.INFORMATION_MESSAGE);
     
-        // Update inventory table
-        updateInventoryTable();
-    
         // Save updated inventory to file
-        saveInventoryToFile();
+        commitInventoryChanges();
     }
 
     private void updateInventoryTable() {
-        // Clear current inventory table model
-        inventoryTableModel.setRowCount(0);
-    
-        // Populate inventory data into table
-        for (Product product : inventory) {
-            Object[] rowData = {product.getName(), product.getPrice(), product.getStock()};
-            inventoryTableModel.addRow(rowData);
+        // Full refresh, only needed after the whole inventory was replaced
+        long start = Metrics.start();
+        inventoryTableModel.inventoryReloaded();
+        if (!searchField.getText().trim().isEmpty()) {
+            searchInventory();
         }
+        updateReorderButton();
+        compilePromotions();
+        Metrics.stop(Metrics.TABLE_REFRESH, start);
     }     
+
+    // Sold down to its reorder level; noted in the status line so the sale is not interrupted
+    private void lowStockAlert(Product product, int stock) {
+        scanStatusLabel.setText("Reorder " + product.getName() + ": " + stock + " left");
+        updateReorderButton();
+    }
+
+    private void updateReorderButton() {
+        int count = inventory.toReorder().size();
+        reorderButton.setText(count == 0 ? "To Reorder" : "To Reorder (" + count + ")");
+        reorderButton.setForeground(count == 0 ? null : Color.RED);
+    }
+
+    // Products at or below their reorder level, with how many to order of each
+    private void showToReorder() {
+        List<Product> products = inventory.toReorder();
+        if (products.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No product is at or below its reorder level.",
+                    "To Reorder", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-30s %8s %8s %8s%n", "Product", "Stock", "Level", "Order"));
+        for (Product product : products) {
+            text.append(String.format("%-30s %8d %8d %8d%n", product.getName(), product.getStock(),
+                    product.getReorderLevel(), LowStockIndex.reorderQuantity(product)));
+        }
+        JTextArea area = new JTextArea(text.toString());
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(area);
+        scrollPane.setPreferredSize(new Dimension(520, 300));
+        JOptionPane.showMessageDialog(this, scrollPane, "To Reorder", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void showEndOfDayReport(EndOfDayReport report) {
+        JTextArea area = new JTextArea(report.toText());
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(area);
+        scrollPane.setPreferredSize(new Dimension(520, 500));
+        JOptionPane.showMessageDialog(this, scrollPane, "End of Day", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    // Shows the products matching the search field, or all of them when it is empty
+    private void searchInventory() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            inventoryTableModel.showAll();
+        } else {
+            inventoryTableModel.showMatches(inventory.search(query, MAX_SEARCH_RESULTS));
+        }
+    }
     
+    // Resolves the promotion rules against the inventory as it is now; needed
+    // again whenever products are added
+    private void compilePromotions() {
+        Promotions promotions = Promotions.compile(promotionRules, inventory);
+        checkoutEngine.setPromotions(promotions);
+        if (!promotionsChecked && inventoryReady && !promotionRules.isEmpty() && !inventory.isEmpty()) {
+            promotionsChecked = true;
+            for (String warning : promotions.getWarnings()) {
+                System.err.println(PROMOTIONS_FILE + ": " + warning);
+            }
+        }
+    }
+
     private void loadInventoryFromFile() {
-        inventory.clear(); // Clear existing inventory data
-        
-        String filePath = System.getProperty("user.dir") + File.separator + INVENTORY_FILE;
-        File inventoryFile = new File(filePath);
+        if (remote != null) {
+            remote.load();
+        } else {
+            persistence.load();
+        }
+    }
+    
+    // Fast start: the file's products, read as the table shows them, while
+    // the worker is still replaying the journal and indexing its own copy
+    private void showInventoryPreview(InventorySource file) {
+        inventory.load(file);
+        setInventoryReady(false);
+        inventoryTableModel.inventoryReloaded();
+        previewShownMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    private void setInventoryReady(boolean ready) {
+        inventoryReady = ready;
+        for (JComponent control : inventoryControls) {
+            control.setEnabled(ready);
+        }
+        updateUndoButtons();
+        scanStatusLabel.setText(ready ? " " : "Loading inventory...");
+    }
+
+    private void showLoadedInventory(InventoryCatalog loaded, boolean fileFound) {
+        inventory.replaceWith(loaded);
+        clearUndoHistory();
+        if (!inventoryReady) {
+            setInventoryReady(true);
+        }
+        reportStartup();
     
-        if (!inventoryFile.exists()) {
+        if (!fileFound) {
             System.out.println("Inventory file not found. Adding sample data.");
             addSampleData();
+            saveInventoryToFile(); // Gives the journal a snapshot to build on
             return;
         }
     
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 3) {
-                    String name = parts[0];
-                    double price = Double.parseDouble(parts[1]);
-                    int stock = Integer.parseInt(parts[2]);
-                    inventory.add(new Product(name, price, stock));
-                }
-            }
-            
-            // Update inventory table
-            updateInventoryTable();
-            
-        } catch (IOException | NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Error loading inventory from file: " + e.getMessage(),
-                    "File Error", JOptionPane.ERROR_MESSAGE);
+        // Add sample data if the file had no products
+        if (inventory.isEmpty()) {
+            addSampleData();
+            return;
         }
+    
+        // Update inventory table
+        updateInventoryTable();
     }
     
+    // Keeps the inventory locked rather than showing sample data, which
+    // would be saved over the file the user still needs to fix
+    private void showLoadFailure(String message) {
+        inventory.clear();
+        clearUndoHistory();
+        setInventoryReady(false);
+        scanStatusLabel.setText("Inventory could not be loaded");
+        updateInventoryTable();
+        JOptionPane.showMessageDialog(this, message + "\nFix or restore " + INVENTORY_FILE
+                + " and restart; no changes will be saved until then.", "File Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    // One line on how long the first start took to get going
+    private void reportStartup() {
+        if (startupReported) {
+            return;
+        }
+        startupReported = true;
+        long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println("Startup: window shown after " + windowShownMillis + " ms, "
+                + (previewShownMillis == -1 ? "" : "products shown after " + previewShownMillis + " ms, ")
+                + "ready after " + readyMillis + " ms with " + inventory.size() + " products");
+    }
+
+    // Product changes go to the inventory server when there is one, to the
+    // journal otherwise; the server is only told how much the stock changed
+    private void recordProductSaved(Product product, int stockChange) {
+        if (remote != null) {
+            remote.productSaved(product, stockChange);
+        } else {
+            journal.productSaved(product);
+        }
+    }
+
+    private void recordProductRenamed(String oldName, String newName) {
+        if (remote != null) {
+            remote.productRenamed(oldName, newName);
+        } else {
+            journal.productRenamed(oldName, newName);
+        }
+    }
+
+    private void recordProductDeleted(String name) {
+        if (remote != null) {
+            remote.productDeleted(name);
+        } else {
+            journal.productDeleted(name);
+        }
+    }
+
+    // Hands the changes recorded since the last commit to the persistence worker
+    private void commitInventoryChanges() {
+        persistence.commit();
+    }
     
+    // Writes a full snapshot of the inventory and starts a new, empty journal
     private void saveInventoryToFile() {
-        String filePath = System.getProperty("user.dir") + File.separator + INVENTORY_FILE;
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            for (Product product : inventory) {
-                bw.write(product.getName() + "," + product.getPrice() + "," + product.getStock());
-                bw.newLine();
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving inventory to file: " + e.getMessage(),
+        persistence.saveSnapshot(inventory);
+    }
+    
+    private void closeWindow() {
+        boolean saved = remote == null || remote.close(CLOSE_TIMEOUT_MILLIS);
+        if (!persistence.close(CLOSE_TIMEOUT_MILLIS) || !saved) {
+            JOptionPane.showMessageDialog(this, "Some inventory changes could not be saved in time.",
                     "File Error", JOptionPane.ERROR_MESSAGE);
         }
+        Metrics.close();
+        dispose();
+        System.exit(0);
     }
 
+    // With --server host:port the till shares the inventory of an InventoryServer.
+    // --fast-start shows the inventory file before it is fully loaded and keeps
+    // a binary copy of it to open faster next time.
     public static void main(String[] args) {
+        String address = null;
+        boolean fast = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--server") && i + 1 < args.length) {
+                address = args[++i];
+            } else if (args[i].equals("--fast-start")) {
+                fast = true;
+            } else {
+                System.err.println("Usage: SimplePOS [--server host:port] [--fast-start]");
+                System.exit(2);
+            }
+        }
+        final String serverAddress = address;
+        final boolean fastStart = fast;
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new SimplePOS();
+                Metrics.install(new File(System.getProperty("user.dir") + File.separator + METRICS_FILE).toPath());
+                new SimplePOS(serverAddress, fastStart);
             }
         });
     }
@@ -0,0 +1,91 @@
+// Barcode lookups without boxing: an open-addressing hash map from SKU to
+// ProductStore id with linear probing. SKU 0 means "no barcode" and marks
+// free slots.
+public class SkuIndex {
+    private long[] keys = new long[16];
+    private int[] values = new int[16];
+    private int size;
+
+    // The id with the barcode, or -1
+    public int get(long sku) {
+        if (sku == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(sku, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == sku) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    public void put(long sku, int id) {
+        if (sku == 0) {
+            return;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int slot = slot(sku, mask);
+        while (keys[slot] != 0 && keys[slot] != sku) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            size++;
+        }
+        keys[slot] = sku;
+        values[slot] = id;
+    }
+
+    public void remove(long sku) {
+        if (sku == 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(sku, mask);
+        while (keys[slot] != sku) {
+            if (keys[slot] == 0) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Shift later entries of the probe chain back so lookups still find them
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        values[free] = 0;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slot(long sku, int mask) {
+        long h = sku * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,88 @@
+// The last changes made, as AuditLog payloads, for undo and redo. The
+// payloads sit in a ring that drops the oldest once full; undone ones stay
+// after the cursor for redo until a new change replaces them.
+public class UndoHistory {
+    private final byte[][] ring;
+    // Slot of the oldest change
+    private int first;
+    // Changes held, and how many of them are not undone
+    private int count;
+    private int done;
+
+    public UndoHistory(int capacity) {
+        ring = new byte[capacity][];
+    }
+
+    public void add(byte[] change) {
+        // Undone changes cannot be redone once something else has changed
+        for (int i = done; i < count; i++) {
+            ring[slot(i)] = null;
+        }
+        count = done;
+        if (count == ring.length) {
+            ring[first] = null;
+            first = slot(1);
+            count--;
+        }
+        ring[slot(count)] = change;
+        count++;
+        done = count;
+    }
+
+    public boolean canUndo() {
+        return done > 0;
+    }
+
+    public boolean canRedo() {
+        return done < count;
+    }
+
+    // The change to undo next, without moving the cursor; null if none
+    public byte[] peekUndo() {
+        return canUndo() ? ring[slot(done - 1)] : null;
+    }
+
+    public byte[] peekRedo() {
+        return canRedo() ? ring[slot(done)] : null;
+    }
+
+    // Moves the cursor back over the change peekUndo() returned
+    public void undone() {
+        done--;
+    }
+
+    public void redone() {
+        done++;
+    }
+
+    // Drops the change peekUndo() returned, when it can no longer be applied
+    public void dropUndo() {
+        for (int i = done - 1; i < count - 1; i++) {
+            ring[slot(i)] = ring[slot(i + 1)];
+        }
+        count--;
+        ring[slot(count)] = null;
+        done--;
+    }
+
+    public void dropRedo() {
+        for (int i = done; i < count - 1; i++) {
+            ring[slot(i)] = ring[slot(i + 1)];
+        }
+        count--;
+        ring[slot(count)] = null;
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            ring[slot(i)] = null;
+        }
+        first = 0;
+        count = 0;
+        done = 0;
+    }
+
+    private int slot(int i) {
+        return (first + i) % ring.length;
+    }
+}